@@ -4,17 +4,59 @@ import java.util.*;
 
 /**
  * Created by Roman on 05/03/2017.
+ * <p>
+ * Immutable navigable set over a sorted array. Views, including descending ones, are windows
+ * {@code [from, to)} over the same array, so a view of a view is as cheap as a view of the set.
+ * <p>
+ * Unions, intersections and differences of sets in the same order are computed by merging them;
+ * when one set is much smaller, the larger one is searched with galloping instead of being scanned.
+ * <p>
+ * With {@link Layout#EYTZINGER}, lookups first descend a small tree of sample elements laid out
+ * in breadth-first order, which the set and all its views share, and then search the sorted array
+ * only between two adjacent samples. Iteration and views still use the sorted array.
  */
-public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
-    private List<E> elements;
-    private Comparator<? super E> comparator;
+public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+    private static final Object[] EMPTY = {};
+    /* below it, sorting in one thread is faster than splitting the work */
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+    /* merging is linear in the larger set; when it is this many times larger, galloping through it is faster */
+    private static final int GALLOP_RATIO = 16;
+    /* above it, objects compared by the binary search after the tree are out of cache whatever the layout,
+       and the descent only adds to it: at 2^19 elements both layouts were even, at 2^20 and more the tree was slower */
+    private static final int MAX_EYTZINGER_SIZE = 1 << 18;
+
+    /* sorted in ascending order of the comparator, shared by all views */
+    private final Object[] elements;
+    private final int from;
+    private final int to;
+    private final boolean reversed;
+    private final Comparator<? super E> comparator;
+    /* search layout or null to search the sorted array */
+    private final Eytzinger eytzinger;
+
+    /**
+     * How lookups search the elements.
+     */
+    public enum Layout {
+        /**
+         * Binary search over the sorted array.
+         */
+        SORTED,
+        /**
+         * Search over a small breadth-first tree of sample elements, then over the sorted array between two of them.
+         * For objects it pays off in sets of up to a few hundred thousand elements, so larger {@link ArraySet}s
+         * search the sorted array anyway, as {@link #layout()} tells. {@link IntArraySet} and {@link LongArraySet}, which keep values inline,
+         * gain at any size and always use the tree.
+         */
+        EYTZINGER
+    }
 
     public ArraySet() {
-        elements = Collections.emptyList();
+        this((Comparator<? super E>) null);
     }
 
     public ArraySet(Comparator<? super E> comparator) {
-        this.comparator = comparator;
+        this(EMPTY, 0, 0, false, comparator, null);
     }
 
 
@@ -22,76 +64,186 @@ public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
         this(collection, null);
     }
 
+    /**
+     * Copies the collection into an array, which is sorted unless it already is, and removes duplicates,
+     * keeping the first of equal elements. A {@link SortedSet} with an equal comparator is copied as is.
+     */
     public ArraySet(Collection<? extends E> collection, Comparator<? super E> comparator) {
-        TreeSet<E> treeSet = new TreeSet<>(comparator);
-        treeSet.addAll(collection);
-        elements = new ArrayList<>(treeSet);
+        this(collection, comparator, Layout.SORTED);
+    }
+
+    /**
+     * @param layout layout for lookups, see {@link Layout}
+     */
+    public ArraySet(Collection<? extends E> collection, Comparator<? super E> comparator, Layout layout) {
         this.comparator = comparator;
+        Object[] array = collection.toArray();
+        if (!(collection instanceof SortedSet && Objects.equals(((SortedSet<?>) collection).comparator(), comparator))
+                && !isStrictlySorted(array)) {
+            if (array.length >= PARALLEL_SORT_THRESHOLD) {
+                Arrays.parallelSort(array, this::compareObjects);
+            } else {
+                Arrays.sort(array, this::compareObjects);
+            }
+            int size = 0;
+            for (int i = 0; i < array.length; i++) {
+                if (i == 0 || compareObjects(array[i], array[size - 1]) != 0) {
+                    array[size++] = array[i];
+                }
+            }
+            if (size < array.length) {
+                array = Arrays.copyOf(array, size);
+            }
+        }
+        elements = array;
+        from = 0;
+        to = elements.length;
+        reversed = false;
+        eytzinger = layout == Layout.EYTZINGER && elements.length <= MAX_EYTZINGER_SIZE
+                ? new Eytzinger(elements, comparator) : null;
     }
 
-    private ArraySet(List<E> list, Comparator<? super E> comparator) {
-        this.elements = list;
+    private ArraySet(Object[] elements, int from, int to, boolean reversed, Comparator<? super E> comparator,
+                     Eytzinger eytzinger) {
+        this.elements = elements;
+        this.from = from;
+        this.to = to;
+        this.reversed = reversed;
         this.comparator = comparator;
+        this.eytzinger = eytzinger;
     }
 
 
     public ArraySet(SortedSet<E> set) {
         this.comparator = set.comparator();
-        elements = new ArrayList<>(set);
+        elements = set.toArray();
+        from = 0;
+        to = elements.length;
+        reversed = false;
+        eytzinger = null;
     }
 
     @Override
     public Comparator<? super E> comparator() {
-        return comparator;
+        return reversed ? Collections.reverseOrder(comparator) : comparator;
+    }
+
+    /**
+     * @return layout lookups actually use: {@link Layout#SORTED} for a set requested with {@link Layout#EYTZINGER}
+     * but too large for it to pay off, or for a set computed from other sets
+     */
+    public Layout layout() {
+        return eytzinger == null ? Layout.SORTED : Layout.EYTZINGER;
+    }
+
+    @Override
+    public E lower(E e) {
+        return reversed ? above(e, false) : below(e, false);
+    }
+
+    @Override
+    public E floor(E e) {
+        return reversed ? above(e, true) : below(e, true);
+    }
+
+    @Override
+    public E ceiling(E e) {
+        return reversed ? below(e, true) : above(e, true);
+    }
+
+    @Override
+    public E higher(E e) {
+        return reversed ? below(e, false) : above(e, false);
+    }
+
+    @Override
+    public E pollFirst() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public E pollLast() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ArraySet<E> descendingSet() {
+        return new ArraySet<>(elements, from, to, !reversed, comparator, eytzinger);
     }
 
     @Override
-    public ArraySet<E> subSet(Object fromElement, Object toElement) {
-        int fromPos = binarySearch(fromElement);
-        int toPos = binarySearch(toElement);
-        return getRange(fromPos, toPos);
+    public Iterator<E> descendingIterator() {
+        return descendingSet().iterator();
     }
 
     @Override
-    public ArraySet<E> headSet(Object toElement) {
-        return getRange(0, binarySearch(toElement));
+    public ArraySet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        if (reversed ? compare(toElement, fromElement) > 0 : compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        return reversed
+                ? getRange(lowBound(toElement, toInclusive), highBound(fromElement, fromInclusive))
+                : getRange(lowBound(fromElement, fromInclusive), highBound(toElement, toInclusive));
     }
 
     @Override
-    public ArraySet<E> tailSet(Object fromElement) {
-        return getRange(binarySearch(fromElement), size());
+    public ArraySet<E> headSet(E toElement, boolean inclusive) {
+        return reversed
+                ? getRange(lowBound(toElement, inclusive), to)
+                : getRange(from, highBound(toElement, inclusive));
+    }
+
+    @Override
+    public ArraySet<E> tailSet(E fromElement, boolean inclusive) {
+        return reversed
+                ? getRange(from, highBound(fromElement, inclusive))
+                : getRange(lowBound(fromElement, inclusive), to);
+    }
+
+    @Override
+    public ArraySet<E> subSet(E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public ArraySet<E> headSet(E toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public ArraySet<E> tailSet(E fromElement) {
+        return tailSet(fromElement, true);
     }
 
     @Override
     public E first() {
         if (isEmpty())
             throw new NoSuchElementException();
-        return elements.get(0);
+        return get(0);
     }
 
     @Override
     public E last() {
         if (isEmpty())
             throw new NoSuchElementException();
-        return elements.get(size() - 1);
+        return get(size() - 1);
     }
 
     @Override
     public int size() {
-        return elements.size();
+        return to - from;
     }
 
     @Override
     public boolean isEmpty() {
-        return elements.isEmpty();
+        return from == to;
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public boolean contains(Object o) {
         try {
-           assert (elements instanceof RandomAccess);
-            return Collections.binarySearch(elements, (E) o, comparator) >= 0;
+            return binarySearch((E) o) >= 0;
         } catch (ClassCastException e) {
             return false;
         }
@@ -109,27 +261,346 @@ public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
 
             @Override
             public E next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
                 index++;
-                return elements.get(index - 1);
+                return get(index - 1);
             }
         };
     }
 
+    public ArraySet<E> union(ArraySet<E> other) {
+        return union(this, other);
+    }
+
+    public ArraySet<E> intersection(ArraySet<E> other) {
+        return intersection(this, other);
+    }
+
+    public ArraySet<E> difference(ArraySet<E> other) {
+        return difference(this, other);
+    }
+
+    public ArraySet<E> symmetricDifference(ArraySet<E> other) {
+        return symmetricDifference(this, other);
+    }
+
+    /**
+     * Of equal elements, the one of {@code a} is taken, as in the other operations.
+     *
+     * @return elements of either set, in the order of {@code a}
+     * @throws IllegalArgumentException if the sets are ordered differently
+     */
+    public static <E> ArraySet<E> union(ArraySet<E> a, ArraySet<E> b) {
+        checkOrder(a, b);
+        Object[] result = new Object[a.size() + b.size()];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int order = a.compareInOrder(a.get(i), b.get(j));
+            if (order > 0) {
+                result[n++] = b.get(j++);
+            } else {
+                if (order == 0) {
+                    j++;
+                }
+                result[n++] = a.get(i++);
+            }
+        }
+        while (i < a.size()) {
+            result[n++] = a.get(i++);
+        }
+        while (j < b.size()) {
+            result[n++] = b.get(j++);
+        }
+        return a.result(result, n);
+    }
+
+    /**
+     * @return elements of both sets
+     * @throws IllegalArgumentException if the sets are ordered differently
+     */
+    public static <E> ArraySet<E> intersection(ArraySet<E> a, ArraySet<E> b) {
+        checkOrder(a, b);
+        ArraySet<E> small = a.size() <= b.size() ? a : b;
+        ArraySet<E> large = small == a ? b : a;
+        boolean gallop = small.size() < large.size() / GALLOP_RATIO;
+        Object[] result = new Object[small.size()];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < small.size() && j < large.size(); i++) {
+            E element = small.get(i);
+            j = gallop ? large.seek(element, j) : large.scan(element, j);
+            if (j < large.size() && large.compareInOrder(large.get(j), element) == 0) {
+                result[n++] = small == a ? element : large.get(j);
+                j++;
+            }
+        }
+        return a.result(result, n);
+    }
+
+    /**
+     * @return elements of {@code a} which are not in {@code b}
+     * @throws IllegalArgumentException if the sets are ordered differently
+     */
+    public static <E> ArraySet<E> difference(ArraySet<E> a, ArraySet<E> b) {
+        checkOrder(a, b);
+        boolean gallop = a.size() < b.size() / GALLOP_RATIO;
+        Object[] result = new Object[a.size()];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < a.size(); i++) {
+            E element = a.get(i);
+            if (j < b.size()) {
+                j = gallop ? b.seek(element, j) : b.scan(element, j);
+            }
+            if (j == b.size() || a.compareInOrder(b.get(j), element) != 0) {
+                result[n++] = element;
+            }
+        }
+        return a.result(result, n);
+    }
+
+    /**
+     * @return elements of exactly one of the sets
+     * @throws IllegalArgumentException if the sets are ordered differently
+     */
+    public static <E> ArraySet<E> symmetricDifference(ArraySet<E> a, ArraySet<E> b) {
+        checkOrder(a, b);
+        Object[] result = new Object[a.size() + b.size()];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int order = a.compareInOrder(a.get(i), b.get(j));
+            if (order < 0) {
+                result[n++] = a.get(i++);
+            } else if (order > 0) {
+                result[n++] = b.get(j++);
+            } else {
+                i++;
+                j++;
+            }
+        }
+        while (i < a.size()) {
+            result[n++] = a.get(i++);
+        }
+        while (j < b.size()) {
+            result[n++] = b.get(j++);
+        }
+        return a.result(result, n);
+    }
 
+    /**
+     * Intersects the sets from the smallest one up, so each step gallops through a larger set
+     * with an intersection which only shrinks.
+     * If there is a single set, or the smallest one is empty, that set itself is returned, not a copy:
+     * sets are immutable, so the result may be shared, but it keeps the layout of the set and,
+     * for a view, the array of the set it is a view of.
+     *
+     * @return elements of all the sets, taken from the smallest one
+     * @throws IllegalArgumentException if there are no sets or they are ordered differently
+     */
+    public static <E> ArraySet<E> intersectAll(Collection<? extends ArraySet<E>> sets) {
+        if (sets.isEmpty()) {
+            throw new IllegalArgumentException("no sets to intersect");
+        }
+        List<ArraySet<E>> bySize = new ArrayList<>(sets);
+        for (ArraySet<E> set : bySize) {
+            checkOrder(bySize.get(0), set);
+        }
+        bySize.sort(Comparator.comparingInt(ArraySet::size));
+        ArraySet<E> result = bySize.get(0);
+        for (int i = 1; i < bySize.size() && !result.isEmpty(); i++) {
+            result = intersection(result, bySize.get(i));
+        }
+        return result;
+    }
+
+    private static void checkOrder(ArraySet<?> a, ArraySet<?> b) {
+        if (!Objects.equals(a.comparator(), b.comparator())) {
+            throw new IllegalArgumentException("sets are ordered by different comparators");
+        }
+    }
+
+    /**
+     * @return set of the first {@code n} elements, which are in the order of this view
+     */
+    private ArraySet<E> result(Object[] result, int n) {
+        return new ArraySet<>(n == result.length ? result : Arrays.copyOf(result, n), 0, n, false, comparator(), null);
+    }
+
+    /**
+     * @return least index from {@code index} of an element not less than {@code e} in the order of this view,
+     * found by checking elements one by one
+     */
+    private int scan(E e, int index) {
+        while (index < size() && compareInOrder(get(index), e) < 0) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return the same as {@link #scan}, found by doubling the step until an element is not less than {@code e}
+     * and then searching the last step
+     */
+    private int seek(E e, int index) {
+        int low = index;
+        int high = index;
+        int step = 1;
+        while (high < size() && compareInOrder(get(high), e) < 0) {
+            low = high + 1;
+            high = step < size() - high ? high + step : size();
+            step <<= 1;
+        }
+        high = Math.min(high, size());
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareInOrder(get(middle), e) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] result = Arrays.copyOfRange(elements, from, to);
+        if (reversed) {
+            Collections.reverse(Arrays.asList(result));
+        }
+        return result;
+    }
+
+    /**
+     * @param index index in the order of this view
+     */
     @SuppressWarnings("unchecked")
-    private int binarySearch(Object o) {
-        try {
-            int pos = Collections.binarySearch(elements, (E) o, comparator);
+    private E get(int index) {
+        return (E) elements[reversed ? to - 1 - index : from + index];
+    }
+
+    /**
+     * @return greatest element less than (or equal to) {@code e} in ascending order, or {@code null}
+     */
+    private E below(E e, boolean inclusive) {
+        return at(highBound(e, inclusive) - 1);
+    }
+
+    /**
+     * @return least element greater than (or equal to) {@code e} in ascending order, or {@code null}
+     */
+    private E above(E e, boolean inclusive) {
+        return at(lowBound(e, inclusive));
+    }
+
+    @SuppressWarnings("unchecked")
+    private E at(int index) {
+        return from <= index && index < to ? (E) elements[index] : null;
+    }
+
+    /**
+     * @return index of the first element greater than (or equal to) {@code e}
+     */
+    private int lowBound(E e, boolean inclusive) {
+        int pos = binarySearch(e);
+        return pos >= 0 ? (inclusive ? pos : pos + 1) : -pos - 1;
+    }
+
+    /**
+     * @return index after the last element less than (or equal to) {@code e}
+     */
+    private int highBound(E e, boolean inclusive) {
+        int pos = binarySearch(e);
+        return pos >= 0 ? (inclusive ? pos + 1 : pos) : -pos - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(E a, E b) {
+        return comparator == null ? ((Comparable<? super E>) a).compareTo(b) : comparator.compare(a, b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareObjects(Object a, Object b) {
+        return compare((E) a, (E) b);
+    }
+
+    private int compareInOrder(Object a, Object b) {
+        return reversed ? compareObjects(b, a) : compareObjects(a, b);
+    }
+
+    private boolean isStrictlySorted(Object[] array) {
+        for (int i = 1; i < array.length; i++) {
+            if (compareObjects(array[i - 1], array[i]) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of {@code e} or {@code -(insertion point) - 1}, as {@link Arrays#binarySearch}
+     */
+    @SuppressWarnings("unchecked")
+    private int binarySearch(E e) {
+        if (eytzinger == null) {
+            return Arrays.binarySearch(elements, from, to, e, (Comparator<Object>) comparator);
+        }
+        int pos = EytzingerIndex.clamp(eytzinger.lowBound(e), from, to);
+        return pos < to && compare((E) elements[pos], e) == 0 ? pos : -pos - 1;
+    }
+
+    /**
+     * Tree of sample elements in breadth-first order over the sorted array, see {@link EytzingerIndex}.
+     * The tree has at most {@link #MAX_LEVELS} levels, so it stays in cache and a descent reads
+     * one node per level from it, where binary search would read a distant element on each level. The elements
+     * between two adjacent samples are then binary searched in the sorted array, where they share cache lines.
+     */
+    private static class Eytzinger {
+        /* 2^12 - 1 samples and the objects they refer to fit into L2 cache */
+        private static final int MAX_LEVELS = 12;
+
+        private final Object[] sorted;
+        private final EytzingerIndex index;
+        private final Object[] samples;
+        /* null for natural order, compared without a comparator like in Arrays.binarySearch */
+        private final Comparator<Object> order;
+
+        @SuppressWarnings("unchecked")
+        Eytzinger(Object[] sorted, Comparator<?> comparator) {
+            this.sorted = sorted;
+            index = new EytzingerIndex(sorted.length, MAX_LEVELS);
+            samples = index.samples(sorted);
+            order = (Comparator<Object>) comparator;
+        }
+
+        /**
+         * @return index of the first element not less than {@code key} in the sorted array
+         */
+        @SuppressWarnings("unchecked")
+        int lowBound(Object key) {
+            int k = 1;
+            if (order == null) {
+                Comparable<Object> comparable = (Comparable<Object>) key;
+                while (k < samples.length) {
+                    k = 2 * k + (comparable.compareTo(samples[k]) > 0 ? 1 : 0);
+                }
+            } else {
+                while (k < samples.length) {
+                    k = 2 * k + (order.compare(samples[k], key) < 0 ? 1 : 0);
+                }
+            }
+            int pos = Arrays.binarySearch(sorted, index.from(k), index.to(k), key, order);
             return pos >= 0 ? pos : -pos - 1;
-        } catch (ClassCastException e) {
-            System.err.println("attempt to find element of other type " + o.getClass().getName());
-            return -1;
         }
     }
 
     private ArraySet<E> getRange(int fromPos, int toPos) {
-        List<E> range = fromPos <= toPos ? elements.subList(fromPos, toPos) : Collections.emptyList();
-        return new ArraySet<>(range, comparator);
+        return new ArraySet<>(elements, fromPos, Math.max(fromPos, toPos), reversed, comparator, eytzinger);
     }
 
 
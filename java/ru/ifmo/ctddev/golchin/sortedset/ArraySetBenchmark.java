@@ -0,0 +1,106 @@
+package ru.ifmo.ctddev.golchin.sortedset;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Compares lookups in {@link IntArraySet} and {@link ArraySet} with each {@link ArraySet.Layout}, for sets
+ * from ones fitting into the L1 cache to ones much larger than the last level cache.
+ * Keys are random, half of them are in the set. Layouts an {@link ArraySet} falls back from are not timed.
+ * <p>
+ * A lookup loop is timed for a number of rounds after it has been compiled, and the fastest round
+ * is reported as nanoseconds per lookup: interference only ever makes a round slower.
+ * The loops return checksums, printed at the end, so that the JIT cannot drop the lookups.
+ * <p>
+ * Usage: {@code ArraySetBenchmark [scale [rounds]]}, where {@code scale} multiplies the size of the largest set.
+ */
+public class ArraySetBenchmark {
+    private static final int COMPILE_ROUNDS = 3;
+    private static final int LOOKUPS = 1 << 20;
+
+    private final Random random = new Random(2017);
+    private final int rounds;
+    private long checksum;
+
+    private ArraySetBenchmark(int rounds) {
+        this.rounds = rounds;
+    }
+
+    public static void main(String[] args) {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ArraySetBenchmark benchmark = new ArraySetBenchmark(rounds);
+        System.out.printf("%-12s %-10s %10s %-9s %s%n", "set", "layout", "size", "lookup", "ns/lookup");
+        for (int size : new int[]{1 << 10, 1 << 16, 1 << 20, scale << 23}) {
+            benchmark.lookups(size);
+        }
+        System.out.println("checksum " + benchmark.checksum);
+    }
+
+    private void lookups(int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = 2 * i;
+        }
+        int[] keys = random.ints(LOOKUPS, 0, 2 * size).toArray();
+        Integer[] boxedKeys = Arrays.stream(keys).boxed().toArray(Integer[]::new);
+        List<Integer> elements = Arrays.asList(Arrays.stream(values).boxed().toArray(Integer[]::new));
+        for (ArraySet.Layout layout : ArraySet.Layout.values()) {
+            IntArraySet ints = new IntArraySet(layout, values);
+            time("IntArraySet", layout, size, "contains", () -> {
+                long found = 0;
+                for (int key : keys) {
+                    if (ints.contains(key)) {
+                        found++;
+                    }
+                }
+                return found;
+            });
+        }
+        for (ArraySet.Layout layout : ArraySet.Layout.values()) {
+            ArraySet<Integer> set = new ArraySet<>(elements, null, layout);
+            if (set.layout() != layout) {
+                System.out.printf("%-12s %-10s %10d falls back to %s%n", "ArraySet", layout, size, set.layout());
+                continue;
+            }
+            time("ArraySet", layout, size, "contains", () -> {
+                long found = 0;
+                for (Integer key : boxedKeys) {
+                    if (set.contains(key)) {
+                        found++;
+                    }
+                }
+                return found;
+            });
+            time("ArraySet", layout, size, "ceiling", () -> {
+                long sum = 0;
+                for (Integer key : boxedKeys) {
+                    Integer ceiling = set.ceiling(key);
+                    sum += ceiling == null ? -1 : ceiling;
+                }
+                return sum;
+            });
+            time("ArraySet", layout, size, "floor", () -> {
+                long sum = 0;
+                for (Integer key : boxedKeys) {
+                    Integer floor = set.floor(key);
+                    sum += floor == null ? -1 : floor;
+                }
+                return sum;
+            });
+        }
+    }
+
+    private void time(String set, ArraySet.Layout layout, int size, String lookup, LongSupplier loop) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < COMPILE_ROUNDS + rounds; i++) {
+            long start = System.nanoTime();
+            checksum += loop.getAsLong();
+            long elapsed = System.nanoTime() - start;
+            if (i >= COMPILE_ROUNDS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.printf("%-12s %-10s %10d %-9s %9.1f%n", set, layout, size, lookup, (double) best / LOOKUPS);
+    }
+}
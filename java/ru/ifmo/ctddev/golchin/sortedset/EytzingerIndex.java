@@ -0,0 +1,126 @@
+package ru.ifmo.ctddev.golchin.sortedset;
+
+import java.util.Arrays;
+
+/**
+ * Shape of an implicit perfect binary search tree over evenly spaced samples of sorted values, stored in
+ * breadth-first (Eytzinger) order: the children of node {@code k} are {@code 2k} and {@code 2k + 1},
+ * the root is node 1. {@link ArraySet}, {@link IntArraySet} and {@link LongArraySet} keep the samples
+ * in arrays of their own element types, while the positions of the samples and the ranges left to binary search
+ * come from here, with the descents over primitive samples. {@link ArraySet} descends with its own comparisons.
+ */
+class EytzingerIndex {
+    private final int size;
+    /* nodes from 1, so the length is the number of samples plus one, a power of two */
+    final int length;
+
+    /**
+     * @param size      number of sorted values
+     * @param maxLevels limit of the tree height, which bounds the number of samples
+     */
+    EytzingerIndex(int size, int maxLevels) {
+        this.size = size;
+        length = 1 << Math.min(maxLevels, 31 - Integer.numberOfLeadingZeros(size + 1));
+    }
+
+    /**
+     * Passes each node with the index of its sample in the sorted values.
+     */
+    private void fill(Sink sink) {
+        fill(sink, 0, 1);
+    }
+
+    /**
+     * Fills the subtree of node {@code k} in order, starting from sample {@code j}.
+     *
+     * @return next sample
+     */
+    private int fill(Sink sink, int j, int k) {
+        if (k < length) {
+            j = fill(sink, j, 2 * k);
+            sink.sample(k, position(j));
+            j = fill(sink, j + 1, 2 * k + 1);
+        }
+        return j;
+    }
+
+    int[] samples(int[] sorted) {
+        int[] samples = new int[length];
+        fill((node, position) -> samples[node] = sorted[position]);
+        return samples;
+    }
+
+    long[] samples(long[] sorted) {
+        long[] samples = new long[length];
+        fill((node, position) -> samples[node] = sorted[position]);
+        return samples;
+    }
+
+    Object[] samples(Object[] sorted) {
+        Object[] samples = new Object[length];
+        fill((node, position) -> samples[node] = sorted[position]);
+        return samples;
+    }
+
+    /**
+     * @return index of the first of the sorted values not less than {@code value}
+     */
+    int lowBound(int[] samples, int[] sorted, int value) {
+        int k = 1;
+        while (k < length) {
+            k = 2 * k + (samples[k] < value ? 1 : 0);
+        }
+        int pos = Arrays.binarySearch(sorted, from(k), to(k), value);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    /**
+     * @return index of the first of the sorted values not less than {@code value}
+     */
+    int lowBound(long[] samples, long[] sorted, long value) {
+        int k = 1;
+        while (k < length) {
+            k = 2 * k + (samples[k] < value ? 1 : 0);
+        }
+        int pos = Arrays.binarySearch(sorted, from(k), to(k), value);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+
+    /**
+     * In a perfect tree, the leaf {@code k} reached by a descent is {@code length} plus the number of samples
+     * less than the key, so the key lies between two adjacent samples.
+     *
+     * @return first index of the sorted values to search after reaching leaf {@code k}
+     */
+    int from(int k) {
+        return position(k - length - 1) + 1;
+    }
+
+    /**
+     * @return index after the last one of the sorted values to search after reaching leaf {@code k}
+     */
+    int to(int k) {
+        return position(k - length);
+    }
+
+    /**
+     * @return index of sample {@code j} in the sorted values; -1 for sample -1 and the number of values
+     * for the sample after the last one
+     */
+    private int position(int j) {
+        return (int) ((long) (j + 1) * (size + 1) / length) - 1;
+    }
+
+    /**
+     * The first value not less than a key in the whole array, clamped, is the first one in a window.
+     *
+     * @return {@code pos} clamped to the window {@code [from, to]}
+     */
+    static int clamp(int pos, int from, int to) {
+        return Math.min(Math.max(pos, from), to);
+    }
+
+    private interface Sink {
+        void sample(int node, int position);
+    }
+}
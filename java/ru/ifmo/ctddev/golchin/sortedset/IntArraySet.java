@@ -0,0 +1,189 @@
+package ru.ifmo.ctddev.golchin.sortedset;
+
+import java.util.*;
+
+/**
+ * Immutable sorted set of {@code int} values in natural order, the unboxed counterpart of {@link ArraySet}.
+ * Values are kept in an {@code int[]} and views are windows {@code [from, to)} over it.
+ * Methods taking and returning {@code int} do not box; the {@link SortedSet} ones box as usual.
+ * <p>
+ * With {@link ArraySet.Layout#EYTZINGER}, lookups first descend a small breadth-first tree of sample values
+ * shared by all views, as in {@link ArraySet}, which is compact as the values are stored inline.
+ */
+public class IntArraySet extends PrimitiveArraySet<Integer> {
+    private final int[] elements;
+    /* samples of the search tree or null to search the sorted array */
+    private final int[] samples;
+
+    public IntArraySet() {
+        this(new int[0], 0, 0, null, null);
+    }
+
+    /**
+     * @param values values in any order, possibly repeated; the array is copied and sorted unless it already is
+     */
+    public IntArraySet(int... values) {
+        this(ArraySet.Layout.SORTED, values);
+    }
+
+    /**
+     * @param layout layout for lookups, see {@link ArraySet.Layout}
+     * @param values values in any order, possibly repeated; the array is copied and sorted unless it already is
+     */
+    public IntArraySet(ArraySet.Layout layout, int... values) {
+        this(sorted(values.clone()), layout);
+    }
+
+    public IntArraySet(Collection<Integer> collection) {
+        this(toArray(collection));
+    }
+
+    private IntArraySet(int[] elements, ArraySet.Layout layout) {
+        this(elements, 0, elements.length, index(layout, elements.length), null);
+    }
+
+    private IntArraySet(int[] elements, int from, int to, EytzingerIndex index, int[] samples) {
+        super(from, to, index);
+        this.elements = elements;
+        this.samples = index == null || samples != null ? samples : index.samples(elements);
+    }
+
+    /**
+     * @return the values sorted without repeats, in the same array if they already are
+     */
+    private static int[] sorted(int[] values) {
+        if (isStrictlySorted(values)) {
+            return values;
+        }
+        if (values.length >= PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(values);
+        } else {
+            Arrays.sort(values);
+        }
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[size - 1]) {
+                values[size++] = values[i];
+            }
+        }
+        return size < values.length ? Arrays.copyOf(values, size) : values;
+    }
+
+    private static boolean isStrictlySorted(int[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i - 1] >= values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] toArray(Collection<Integer> collection) {
+        int[] values = new int[collection.size()];
+        int i = 0;
+        for (int value : collection) {
+            values[i++] = value;
+        }
+        return values;
+    }
+
+    public boolean contains(int value) {
+        int pos = lowBound(value);
+        return pos < to && elements[pos] == value;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains((int) (Integer) o);
+    }
+
+    public int firstInt() {
+        return elements[firstIndex()];
+    }
+
+    public int lastInt() {
+        return elements[lastIndex()];
+    }
+
+    /**
+     * @return values from {@code fromValue} inclusive to {@code toValue} exclusive
+     */
+    public IntArraySet subSet(int fromValue, int toValue) {
+        checkRange(fromValue <= toValue);
+        return getRange(lowBound(fromValue), lowBound(toValue));
+    }
+
+    /**
+     * @return values less than {@code toValue}
+     */
+    public IntArraySet headSet(int toValue) {
+        return getRange(from, lowBound(toValue));
+    }
+
+    /**
+     * @return values greater than or equal to {@code fromValue}
+     */
+    public IntArraySet tailSet(int fromValue) {
+        return getRange(lowBound(fromValue), to);
+    }
+
+    public int[] toIntArray() {
+        return Arrays.copyOfRange(elements, from, to);
+    }
+
+    @Override
+    public IntArraySet subSet(Integer fromElement, Integer toElement) {
+        return subSet((int) fromElement, (int) toElement);
+    }
+
+    @Override
+    public IntArraySet headSet(Integer toElement) {
+        return headSet((int) toElement);
+    }
+
+    @Override
+    public IntArraySet tailSet(Integer fromElement) {
+        return tailSet((int) fromElement);
+    }
+
+    @Override
+    public Integer first() {
+        return firstInt();
+    }
+
+    @Override
+    public Integer last() {
+        return lastInt();
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return elements[next++];
+            }
+        };
+    }
+
+    /**
+     * @return index of the first value greater than or equal to {@code value}
+     */
+    private int lowBound(int value) {
+        return inWindow(index == null
+                ? Arrays.binarySearch(elements, from, to, value) : index.lowBound(samples, elements, value));
+    }
+
+    private IntArraySet getRange(int fromPos, int toPos) {
+        return new IntArraySet(elements, fromPos, Math.max(fromPos, toPos), index, samples);
+    }
+}
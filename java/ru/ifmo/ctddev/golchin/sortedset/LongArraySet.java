@@ -0,0 +1,189 @@
+package ru.ifmo.ctddev.golchin.sortedset;
+
+import java.util.*;
+
+/**
+ * Immutable sorted set of {@code long} values in natural order, the unboxed counterpart of {@link ArraySet}.
+ * Values are kept in a {@code long[]} and views are windows {@code [from, to)} over it.
+ * Methods taking and returning {@code long} do not box; the {@link SortedSet} ones box as usual.
+ * <p>
+ * With {@link ArraySet.Layout#EYTZINGER}, lookups first descend a small breadth-first tree of sample values
+ * shared by all views, as in {@link ArraySet}, which is compact as the values are stored inline.
+ */
+public class LongArraySet extends PrimitiveArraySet<Long> {
+    private final long[] elements;
+    /* samples of the search tree or null to search the sorted array */
+    private final long[] samples;
+
+    public LongArraySet() {
+        this(new long[0], 0, 0, null, null);
+    }
+
+    /**
+     * @param values values in any order, possibly repeated; the array is copied and sorted unless it already is
+     */
+    public LongArraySet(long... values) {
+        this(ArraySet.Layout.SORTED, values);
+    }
+
+    /**
+     * @param layout layout for lookups, see {@link ArraySet.Layout}
+     * @param values values in any order, possibly repeated; the array is copied and sorted unless it already is
+     */
+    public LongArraySet(ArraySet.Layout layout, long... values) {
+        this(sorted(values.clone()), layout);
+    }
+
+    public LongArraySet(Collection<Long> collection) {
+        this(toArray(collection));
+    }
+
+    private LongArraySet(long[] elements, ArraySet.Layout layout) {
+        this(elements, 0, elements.length, index(layout, elements.length), null);
+    }
+
+    private LongArraySet(long[] elements, int from, int to, EytzingerIndex index, long[] samples) {
+        super(from, to, index);
+        this.elements = elements;
+        this.samples = index == null || samples != null ? samples : index.samples(elements);
+    }
+
+    /**
+     * @return the values sorted without repeats, in the same array if they already are
+     */
+    private static long[] sorted(long[] values) {
+        if (isStrictlySorted(values)) {
+            return values;
+        }
+        if (values.length >= PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(values);
+        } else {
+            Arrays.sort(values);
+        }
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[size - 1]) {
+                values[size++] = values[i];
+            }
+        }
+        return size < values.length ? Arrays.copyOf(values, size) : values;
+    }
+
+    private static boolean isStrictlySorted(long[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i - 1] >= values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] toArray(Collection<Long> collection) {
+        long[] values = new long[collection.size()];
+        int i = 0;
+        for (long value : collection) {
+            values[i++] = value;
+        }
+        return values;
+    }
+
+    public boolean contains(long value) {
+        int pos = lowBound(value);
+        return pos < to && elements[pos] == value;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) (Long) o);
+    }
+
+    public long firstLong() {
+        return elements[firstIndex()];
+    }
+
+    public long lastLong() {
+        return elements[lastIndex()];
+    }
+
+    /**
+     * @return values from {@code fromValue} inclusive to {@code toValue} exclusive
+     */
+    public LongArraySet subSet(long fromValue, long toValue) {
+        checkRange(fromValue <= toValue);
+        return getRange(lowBound(fromValue), lowBound(toValue));
+    }
+
+    /**
+     * @return values less than {@code toValue}
+     */
+    public LongArraySet headSet(long toValue) {
+        return getRange(from, lowBound(toValue));
+    }
+
+    /**
+     * @return values greater than or equal to {@code fromValue}
+     */
+    public LongArraySet tailSet(long fromValue) {
+        return getRange(lowBound(fromValue), to);
+    }
+
+    public long[] toLongArray() {
+        return Arrays.copyOfRange(elements, from, to);
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, Long toElement) {
+        return subSet((long) fromElement, (long) toElement);
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement) {
+        return headSet((long) toElement);
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement) {
+        return tailSet((long) fromElement);
+    }
+
+    @Override
+    public Long first() {
+        return firstLong();
+    }
+
+    @Override
+    public Long last() {
+        return lastLong();
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return elements[next++];
+            }
+        };
+    }
+
+    /**
+     * @return index of the first value greater than or equal to {@code value}
+     */
+    private int lowBound(long value) {
+        return inWindow(index == null
+                ? Arrays.binarySearch(elements, from, to, value) : index.lowBound(samples, elements, value));
+    }
+
+    private LongArraySet getRange(int fromPos, int toPos) {
+        return new LongArraySet(elements, fromPos, Math.max(fromPos, toPos), index, samples);
+    }
+}
@@ -0,0 +1,83 @@
+package ru.ifmo.ctddev.golchin.sortedset;
+
+import java.util.*;
+
+/**
+ * Window {@code [from, to)} over a sorted array of primitive values in natural order, with the optional
+ * search tree shared by all views: what {@link IntArraySet} and {@link LongArraySet} have in common.
+ * The subclasses keep the array and the samples of the tree in arrays of their own element types,
+ * so that lookups do not box.
+ */
+abstract class PrimitiveArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
+    /* below it, sorting in one thread is faster than splitting the work */
+    static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+    /* 2^16 - 1 samples take 256 KB of ints or 512 KB of longs */
+    private static final int MAX_LEVELS = 16;
+
+    final int from;
+    final int to;
+    /* shape of the search tree or null to search the sorted array */
+    final EytzingerIndex index;
+
+    PrimitiveArraySet(int from, int to, EytzingerIndex index) {
+        this.from = from;
+        this.to = to;
+        this.index = index;
+    }
+
+    /**
+     * @return shape of the search tree over {@code size} values for the layout, or {@code null} for a sorted array
+     */
+    static EytzingerIndex index(ArraySet.Layout layout, int size) {
+        return layout == ArraySet.Layout.EYTZINGER ? new EytzingerIndex(size, MAX_LEVELS) : null;
+    }
+
+    /**
+     * @param pos result of {@link Arrays#binarySearch} or a low bound in the whole array
+     * @return index of the first value not less than the key within this window
+     */
+    final int inWindow(int pos) {
+        return EytzingerIndex.clamp(pos >= 0 ? pos : -pos - 1, from, to);
+    }
+
+    static void checkRange(boolean ordered) {
+        if (!ordered) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+    }
+
+    /**
+     * @return index of the first value
+     * @throws NoSuchElementException if the set is empty
+     */
+    final int firstIndex() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return from;
+    }
+
+    /**
+     * @return index of the last value
+     * @throws NoSuchElementException if the set is empty
+     */
+    final int lastIndex() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return to - 1;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return from == to;
+    }
+}
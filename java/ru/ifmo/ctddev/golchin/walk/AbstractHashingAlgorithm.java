@@ -0,0 +1,76 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implements whole-file hashing on top of {@link Hasher}, keeping one hasher and one read buffer per thread,
+ * so {@code hashValue} allocates nothing and {@code hash} allocates only the resulting string.
+ */
+abstract class AbstractHashingAlgorithm implements HashingAlgorithm {
+    private static final int BUF_SIZE = 8192;
+    /* files are mapped by windows to keep address space usage bounded */
+    private static final long MAP_SIZE = 64 << 20;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUF_SIZE));
+
+    private final ThreadLocal<Hasher> hashers = ThreadLocal.withInitial(this::newHasher);
+
+    @Override
+    public String hash(InputStream is) throws IOException {
+        return toHex(hashValue(is), hashers.get().bits());
+    }
+
+    @Override
+    public String hash(FileChannel channel) throws IOException {
+        return toHex(hashValue(channel), hashers.get().bits());
+    }
+
+    @Override
+    public long hashValue(InputStream is) throws IOException {
+        Hasher hasher = hasher();
+        ByteBuffer buffer = BUFFERS.get();
+        int size;
+        while ((size = is.read(buffer.array())) >= 0) {
+            buffer.clear();
+            buffer.limit(size);
+            hasher.update(buffer);
+        }
+        return hasher.finish();
+    }
+
+    @Override
+    public long hashValue(FileChannel channel) throws IOException {
+        Hasher hasher = hasher();
+        long size = channel.size();
+        for (long position = channel.position(); position < size; position += MAP_SIZE) {
+            hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position)));
+        }
+        return hasher.finish();
+    }
+
+    @Override
+    public String errorHash() {
+        return toHex(0, hashers.get().bits());
+    }
+
+    /**
+     * @return reset hasher of the current thread
+     */
+    Hasher hasher() {
+        Hasher hasher = hashers.get();
+        hasher.reset();
+        return hasher;
+    }
+
+    static String toHex(long value, int bits) {
+        char[] digits = new char[bits / 4];
+        for (int i = digits.length - 1; i >= 0; i--) {
+            digits[i] = HEX_DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+        return new String(digits);
+    }
+}
@@ -0,0 +1,181 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Hashes files with {@link AsynchronousFileChannel}: each file has one read in flight at a time,
+ * its completion handler feeds the data to the file's {@link Hasher} and issues the next read.
+ * <p>
+ * Up to {@code reads} files are hashed at once, so high-latency storage gets a deep request queue.
+ * On platforms where the JDK emulates asynchronous file I/O with blocking reads on the channel's executor,
+ * Linux being one of them, each read in flight occupies an executor thread,
+ * so the executor has a thread per read rather than per core: a smaller pool would cap the queue depth at its size.
+ * A file first waits for a permit of its store, so a slow disk never takes more reads than its limit,
+ * and its queued files hold no reads another disk could use.
+ * When reads are throttled, the next read of a file is scheduled after the wait instead of blocking a handler thread.
+ */
+class AsyncHashEngine implements Closeable {
+    private static final int BUF_SIZE = 256 << 10;
+    private static final Set<OpenOption> READ = Collections.singleton(StandardOpenOption.READ);
+
+    private final HashingAlgorithm algorithm;
+    private final WalkStats stats;
+    private final StoreLimits storeLimits;
+    private final Throttle throttle;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService delayed;
+    private final AsyncSemaphore inFlight;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param storeLimits limits of reads per store or {@code null} if stores are not limited
+     * @param throttle    limits of reading or {@code null} if reads are not limited
+     */
+    AsyncHashEngine(HashingAlgorithm algorithm, int reads, WalkStats stats, StoreLimits storeLimits, Throttle throttle) {
+        this.algorithm = algorithm;
+        this.stats = stats;
+        this.storeLimits = storeLimits;
+        this.throttle = throttle;
+        this.inFlight = new AsyncSemaphore(reads);
+        executor = Executors.newFixedThreadPool(reads, runnable -> {
+            Thread thread = new Thread(runnable, "walk-async");
+            thread.setDaemon(true);
+            return thread;
+        });
+        delayed = throttle == null ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "walk-async-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts hashing the file once a permit of its store and then one of the reads are available.
+     * The calling thread does not wait for the permits, so files of other stores are submitted meanwhile.
+     *
+     * @return future hash of the file, failed with {@link FileNotFoundException} if the file cannot be opened
+     */
+    CompletableFuture<Long> hash(Path file) throws InterruptedException {
+        if (throttle != null) {
+            TimeUnit.NANOSECONDS.sleep(throttle.reserveOpen());
+        }
+        AsyncSemaphore storePermits = storeLimits == null ? null : storeLimits.permits(file);
+        CompletableFuture<Void> permits = storePermits == null
+                ? inFlight.acquire()
+                : storePermits.acquire().thenCompose(ignored -> inFlight.acquire());
+        /* a released permit starts the next file on a handler thread rather than down the releasing stack */
+        return permits.thenComposeAsync(ignored -> open(file, storePermits), executor);
+    }
+
+    private CompletableFuture<Long> open(Path file, AsyncSemaphore storePermits) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(file, READ, executor);
+        } catch (IOException e) {
+            inFlight.release();
+            release(storePermits);
+            FileNotFoundException notFound = new FileNotFoundException(file + " (" + e.getMessage() + ")");
+            notFound.initCause(e);
+            result.completeExceptionally(notFound);
+            return result;
+        }
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUF_SIZE);
+        }
+        new Reader(channel, buffer, result, storePermits).read();
+        return result;
+    }
+
+    private static void release(AsyncSemaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        if (delayed != null) {
+            delayed.shutdownNow();
+        }
+    }
+
+    private class Reader implements CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final ByteBuffer buffer;
+        private final CompletableFuture<Long> result;
+        private final AsyncSemaphore storePermits;
+        private final Hasher hasher = algorithm.newHasher();
+        private final long start = System.nanoTime();
+        private long position;
+
+        Reader(AsynchronousFileChannel channel, ByteBuffer buffer, CompletableFuture<Long> result, AsyncSemaphore storePermits) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.result = result;
+            this.storePermits = storePermits;
+        }
+
+        void read() {
+            buffer.clear();
+            try {
+                channel.read(buffer, position, null, this);
+            } catch (RuntimeException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void completed(Integer size, Void attachment) {
+            if (size < 0) {
+                finish();
+                stats.fileHashed(position, System.nanoTime() - start);
+                result.complete(hasher.finish());
+                return;
+            }
+            position += size;
+            buffer.flip();
+            hasher.update(buffer);
+            long wait = throttle == null ? 0 : throttle.reserveRead(size);
+            if (wait <= 0) {
+                read();
+                return;
+            }
+            try {
+                delayed.schedule(this::read, wait, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            finish();
+            result.completeExceptionally(e);
+        }
+
+        private void finish() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            buffers.add(buffer);
+            inFlight.release();
+            release(storePermits);
+        }
+    }
+}
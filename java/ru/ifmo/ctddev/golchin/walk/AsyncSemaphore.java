@@ -0,0 +1,49 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Counting semaphore which permits can be waited for without blocking a thread:
+ * {@link #acquire()} returns a future, and released permits are handed to the waiters in the order they came.
+ * A waiter which future has been cancelled is skipped.
+ */
+class AsyncSemaphore {
+    private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int available;
+
+    AsyncSemaphore(int permits) {
+        available = permits;
+    }
+
+    /**
+     * @return future completed when a permit has been taken, already completed if one is available
+     */
+    synchronized CompletableFuture<Void> acquire() {
+        if (available > 0) {
+            available--;
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    void release() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            synchronized (this) {
+                waiter = waiters.poll();
+                if (waiter == null) {
+                    available++;
+                    return;
+                }
+            }
+            /* completed outside the lock, as it runs the waiter's dependent actions */
+            if (waiter.complete(null)) {
+                return;
+            }
+        }
+    }
+}
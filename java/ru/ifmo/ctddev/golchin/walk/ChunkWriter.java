@@ -0,0 +1,35 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.*;
+import java.nio.file.Path;
+
+/**
+ * Writes digests of file chunks, one {@code <hash> <offset> <length> <path>} line per chunk.
+ * Chunks of a file are written in order of their offsets, while files may come in any order.
+ * Content-defined chunks of a large file come by batches, which may be interleaved with chunks of other files.
+ */
+class ChunkWriter implements Closeable {
+    private final OutputEncoder writer;
+
+    ChunkWriter(String fileName, String charset) throws IOException {
+        writer = new OutputEncoder(new FileOutputStream(fileName), charset);
+    }
+
+    synchronized void write(Path file, long[] offsets, long[] lengths, long[] digests, int count, int bits) throws IOException {
+        for (int i = 0; i < count; i++) {
+            writer.writeHex(digests[i], bits);
+            writer.write(' ');
+            writer.write(Long.toString(offsets[i]));
+            writer.write(' ');
+            writer.write(Long.toString(lengths[i]));
+            writer.write(' ');
+            writer.write(file.toString());
+            writer.write('\n');
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
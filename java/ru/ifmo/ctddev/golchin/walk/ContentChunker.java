@@ -0,0 +1,145 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Splits files into chunks at content-defined boundaries and writes the chunk digests,
+ * so that an insertion or a deletion in a file changes only the chunks around it.
+ * <p>
+ * Boundaries are found with a Gear rolling hash as in FastCDC: a boundary follows a byte where the high bits
+ * of the hash, which depend on the last 64 bytes, are all zero. Chunks are at least a quarter and at most
+ * eight times the average size, and the condition is stricter before the average size and looser after it,
+ * so that chunk sizes stay close to the average. The Gear table is generated from a fixed seed,
+ * so boundaries are the same on every host.
+ * <p>
+ * The file is read once through a buffer of fixed size, computing the whole-file hash along with the chunks,
+ * and chunk digests are written by batches, so memory per file does not depend on its size.
+ */
+class ContentChunker {
+    private static final int BUF_SIZE = 256 << 10;
+    private static final int BATCH_SIZE = 1024;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x5eed_c0de_2017L;
+        for (int i = 0; i < GEAR.length; i++) {
+            /* SplitMix64 */
+            long z = seed += 0x9e3779b97f4a7c15L;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final ChunkWriter chunkWriter;
+    private final Throttle throttle;
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+    private final ThreadLocal<State> states;
+
+    /**
+     * @param averageSize power of two, at least 64
+     * @param throttle    limits of reading, may be {@code null}
+     */
+    ContentChunker(HashingAlgorithm algorithm, int averageSize, ChunkWriter chunkWriter, Throttle throttle) {
+        this.chunkWriter = chunkWriter;
+        this.throttle = throttle;
+        this.averageSize = averageSize;
+        minSize = averageSize / 4;
+        maxSize = averageSize * 8;
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        strictMask = -1L << (Long.SIZE - bits - 1);
+        looseMask = -1L << (Long.SIZE - bits + 1);
+        states = ThreadLocal.withInitial(() -> new State(algorithm));
+    }
+
+    /**
+     * @return hash of the whole file, the same as {@link HashingAlgorithm#hashValue(FileChannel)}
+     */
+    long hash(Path file, FileChannel channel) throws IOException {
+        State state = states.get();
+        Hasher fileHasher = state.fileHasher;
+        Hasher chunkHasher = state.chunkHasher;
+        ByteBuffer buffer = state.buffer;
+        byte[] bytes = buffer.array();
+        fileHasher.reset();
+        chunkHasher.reset();
+        state.count = 0;
+
+        long offset = 0;
+        int length = 0;
+        long gear = 0;
+        buffer.clear();
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            int end = buffer.limit();
+            if (throttle != null) {
+                throttle.read(end);
+            }
+            fileHasher.update(buffer);
+            int start = 0;
+            for (int i = 0; i < end; i++) {
+                length++;
+                if (length <= minSize) {
+                    continue;
+                }
+                gear = (gear << 1) + GEAR[bytes[i] & 0xff];
+                if ((gear & (length < averageSize ? strictMask : looseMask)) == 0 || length >= maxSize) {
+                    chunkHasher.update(ByteBuffer.wrap(bytes, start, i + 1 - start));
+                    add(file, state, offset, length, chunkHasher.finish());
+                    chunkHasher.reset();
+                    offset += length;
+                    length = 0;
+                    gear = 0;
+                    start = i + 1;
+                }
+            }
+            chunkHasher.update(ByteBuffer.wrap(bytes, start, end - start));
+            buffer.clear();
+        }
+        if (length > 0 || offset == 0) {
+            add(file, state, offset, length, chunkHasher.finish());
+        }
+        flush(file, state);
+        return fileHasher.finish();
+    }
+
+    private void add(Path file, State state, long offset, int length, long digest) throws IOException {
+        if (state.count == BATCH_SIZE) {
+            flush(file, state);
+        }
+        state.offsets[state.count] = offset;
+        state.lengths[state.count] = length;
+        state.digests[state.count] = digest;
+        state.count++;
+    }
+
+    private void flush(Path file, State state) throws IOException {
+        chunkWriter.write(file, state.offsets, state.lengths, state.digests, state.count, state.chunkHasher.bits());
+        state.count = 0;
+    }
+
+    /**
+     * Buffers of a thread, reused for all files it chunks.
+     */
+    private static class State {
+        private final Hasher fileHasher;
+        private final Hasher chunkHasher;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUF_SIZE);
+        private final long[] offsets = new long[BATCH_SIZE];
+        private final long[] lengths = new long[BATCH_SIZE];
+        private final long[] digests = new long[BATCH_SIZE];
+        private int count;
+
+        State(HashingAlgorithm algorithm) {
+            fileHasher = algorithm.newHasher();
+            chunkHasher = algorithm.newHasher();
+        }
+    }
+}
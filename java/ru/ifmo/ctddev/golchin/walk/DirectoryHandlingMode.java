@@ -4,5 +4,9 @@ package ru.ifmo.ctddev.golchin.crawler;
  * Created by Roman on 13/02/2017.
  */
 enum DirectoryHandlingMode {
-    ERROR, RECURSIVE_WALK
+    ERROR, RECURSIVE_WALK,
+    /**
+     * Directories are walked recursively and only groups of files with equal contents are written.
+     */
+    DUPLICATES
 }
@@ -0,0 +1,195 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Finds files with equal contents, narrowing candidates in three steps: by size,
+ * by hash of the first and the last blocks, and only then by hash of the whole file,
+ * or by the contents themselves for files of up to two blocks, as a hash may collide.
+ * Files with a unique size or a unique partial hash are never read completely.
+ * <p>
+ * Each group is written as {@code <hash> <path>} lines followed by an empty line,
+ * groups and files within them in the order they have been found.
+ * <p>
+ * A file is a candidate once, by the first path it has been found by: paths found again through overlapping inputs
+ * and hard links to it are skipped, as are symbolic links met while walking directories.
+ */
+class DuplicateFinder {
+    private static final int BLOCK_SIZE = 4096;
+
+    private final WalkImpl walk;
+    private final WalkFilter filter;
+    private final Hasher hasher;
+    private final ByteBuffer buffer = ByteBuffer.allocate(2 * BLOCK_SIZE);
+    private final Map<Long, List<Path>> bySize = new LinkedHashMap<>();
+    private final Set<Path> paths = new HashSet<>();
+    private final Set<Object> fileKeys = new HashSet<>();
+
+    DuplicateFinder(WalkImpl walk, HashingAlgorithm algorithm, WalkFilter filter) {
+        this.walk = walk;
+        this.filter = filter;
+        this.hasher = algorithm.newHasher();
+    }
+
+    void run(BufferedReader reader, Writer writer) throws IOException {
+        String filePath;
+        while ((filePath = reader.readLine()) != null) {
+            long start = System.nanoTime();
+            try {
+                add(new File(filePath).toPath());
+            } catch (InvalidPathException e) {
+                System.err.println("invalid path " + filePath);
+            }
+            walk.stats().traversed(System.nanoTime() - start);
+        }
+        for (Map.Entry<Long, List<Path>> sameSize : bySize.entrySet()) {
+            if (sameSize.getValue().size() < 2) {
+                continue;
+            }
+            boolean whole = sameSize.getKey() <= buffer.capacity();
+            for (Map.Entry<Object, List<Path>> samePartial : group(sameSize.getValue(), this::partialHash).entrySet()) {
+                if (whole) {
+                    for (List<Path> same : group(samePartial.getValue(), this::contents).values()) {
+                        write(same, (Long) samePartial.getKey(), writer);
+                    }
+                } else {
+                    for (Map.Entry<Object, List<Path>> same : group(samePartial.getValue(), file -> walk.hashChecked(file, null)).entrySet()) {
+                        write(same.getValue(), (Long) same.getKey(), writer);
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(Path path) {
+        try {
+            if (Files.isDirectory(path)) {
+                Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        return filter.acceptsDirectory(path, dir) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (filter.acceptsFile(path, file, attrs)) {
+                            add(file, attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        System.err.println("Unable to access " + file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else {
+                add(path, Files.readAttributes(path, BasicFileAttributes.class));
+            }
+        } catch (IOException | SecurityException e) {
+            System.err.println("Unable to access " + path);
+        }
+    }
+
+    /**
+     * Adds a regular file unless it has been added already by another path.
+     */
+    private void add(Path file, BasicFileAttributes attrs) {
+        if (!attrs.isRegularFile() || !paths.add(file.toAbsolutePath().normalize())) {
+            return;
+        }
+        Object fileKey = attrs.fileKey();
+        if (fileKey == null || fileKeys.add(fileKey)) {
+            bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(file);
+        }
+    }
+
+    /**
+     * @return groups of at least two files by their keys; files which keys could not be computed are skipped
+     */
+    private static Map<Object, List<Path>> group(List<Path> files, Key key) {
+        Map<Object, List<Path>> groups = new LinkedHashMap<>();
+        for (Path file : files) {
+            try {
+                groups.computeIfAbsent(key.of(file), k -> new ArrayList<>()).add(file);
+            } catch (IOException e) {
+                System.err.println("an I/O error occurred while processing the file: " + file);
+            }
+        }
+        groups.values().removeIf(group -> group.size() < 2);
+        return groups;
+    }
+
+    /**
+     * Hashes the first and the last blocks of the file, which cover files of up to two blocks completely,
+     * so for them the partial hash is the hash of the whole file.
+     */
+    private Long partialHash(Path file) throws IOException {
+        Throttle throttle = walk.throttle();
+        if (throttle != null) {
+            throttle.open();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            buffer.clear();
+            if (size > buffer.capacity()) {
+                buffer.limit(BLOCK_SIZE);
+                readFully(channel, 0);
+                buffer.limit(buffer.capacity());
+                readFully(channel, size - BLOCK_SIZE);
+            } else {
+                buffer.limit((int) size);
+                readFully(channel, 0);
+            }
+            buffer.flip();
+            if (throttle != null) {
+                throttle.read(buffer.remaining());
+            }
+            hasher.reset();
+            hasher.update(buffer);
+            return hasher.finish();
+        }
+    }
+
+    /**
+     * @return contents of a small file, equal to those of another file if the bytes are equal
+     */
+    private ByteBuffer contents(Path file) throws IOException {
+        Throttle throttle = walk.throttle();
+        if (throttle != null) {
+            throttle.open();
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        if (throttle != null) {
+            throttle.read(bytes.length);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void readFully(FileChannel channel, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int size = channel.read(buffer, position);
+            if (size < 0) {
+                throw new EOFException("file has been truncated");
+            }
+            position += size;
+        }
+    }
+
+    private void write(List<Path> group, long hash, Writer writer) {
+        for (Path file : group) {
+            walk.write(writer, hash, file);
+        }
+        walk.write(writer, "");
+    }
+
+    private interface Key {
+        Object of(Path file) throws IOException;
+    }
+}
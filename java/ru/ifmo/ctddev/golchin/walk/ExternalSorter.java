@@ -0,0 +1,198 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Sorts lines of text in bounded memory: lines are collected into runs of at most the given size,
+ * each run is sorted and, unless the whole input fits into one, spilled to a temporary file.
+ * The runs are then merged, at most {@link #MAX_FAN_IN} at a time.
+ * <p>
+ * The sort is stable, equal lines are returned in the input order.
+ */
+class ExternalSorter {
+    private static final int MAX_FAN_IN = 256;
+    private static final int BUF_SIZE = 64 << 10;
+    /* approximate size of a String and its reference in a list, besides its characters */
+    private static final int LINE_OVERHEAD = 64;
+
+    private final Comparator<String> order;
+    private final long memory;
+    private final Path tempDir;
+
+    /**
+     * @param memory bytes to hold lines being sorted
+     * @param tempDir directory for the runs or {@code null} for the default temporary directory
+     */
+    ExternalSorter(Comparator<String> order, long memory, Path tempDir) {
+        this.order = order;
+        this.memory = memory;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * @return sorted lines, which have to be closed to delete the temporary files
+     */
+    Lines sort(BufferedReader in) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try {
+            List<String> lines = new ArrayList<>();
+            long size = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+                size += LINE_OVERHEAD + 2L * line.length();
+                if (size >= memory) {
+                    runs.add(spill(lines));
+                    lines.clear();
+                    size = 0;
+                }
+            }
+            if (runs.isEmpty()) {
+                lines.sort(order);
+                return new ListLines(lines);
+            }
+            if (!lines.isEmpty()) {
+                runs.add(spill(lines));
+                lines.clear();
+            }
+            while (runs.size() > MAX_FAN_IN) {
+                List<Path> merged = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+                runs.subList(0, MAX_FAN_IN).clear();
+                runs.add(0, merge(merged));
+            }
+            return new MergedLines(runs);
+        } catch (IOException | RuntimeException e) {
+            delete(runs);
+            throw e;
+        }
+    }
+
+    private Path spill(List<String> lines) throws IOException {
+        lines.sort(order);
+        Path run = tempDir == null ? Files.createTempFile("sort", ".run") : Files.createTempFile(tempDir, "sort", ".run");
+        try (Writer out = new OutputEncoder(new FileOutputStream(run.toFile()), "UTF-8")) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        return run;
+    }
+
+    private Path merge(List<Path> runs) throws IOException {
+        Path run = tempDir == null ? Files.createTempFile("sort", ".run") : Files.createTempFile(tempDir, "sort", ".run");
+        try (Lines lines = new MergedLines(runs);
+             Writer out = new OutputEncoder(new FileOutputStream(run.toFile()), "UTF-8")) {
+            String line;
+            while ((line = lines.next()) != null) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        return run;
+    }
+
+    private static void delete(List<Path> runs) {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                System.err.println("Unable to delete temporary file " + run);
+            }
+        }
+    }
+
+    /**
+     * Sorted lines.
+     */
+    interface Lines extends Closeable {
+        /**
+         * @return next line or {@code null} if there are no more lines
+         */
+        String next() throws IOException;
+    }
+
+    private static class ListLines implements Lines {
+        private final Iterator<String> iterator;
+
+        ListLines(List<String> lines) {
+            iterator = lines.iterator();
+        }
+
+        @Override
+        public String next() {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Merges runs, deleting them when closed. Equal lines are taken from the earlier runs first.
+     */
+    private class MergedLines implements Lines {
+        private final List<Path> runs;
+        private final List<BufferedReader> readers = new ArrayList<>();
+        private final PriorityQueue<Head> heads;
+
+        MergedLines(List<Path> runs) throws IOException {
+            this.runs = runs;
+            heads = new PriorityQueue<>(runs.size(), (a, b) -> {
+                int result = order.compare(a.line, b.line);
+                return result != 0 ? result : Integer.compare(a.run, b.run);
+            });
+            try {
+                for (Path run : runs) {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            new FileInputStream(run.toFile()), StandardCharsets.UTF_8), BUF_SIZE);
+                    readers.add(reader);
+                    String line = reader.readLine();
+                    if (line != null) {
+                        heads.add(new Head(line, readers.size() - 1));
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public String next() throws IOException {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            String line = head.line;
+            head.line = readers.get(head.run).readLine();
+            if (head.line != null) {
+                heads.add(head);
+            }
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+            delete(runs);
+        }
+    }
+
+    private static class Head {
+        private String line;
+        private final int run;
+
+        Head(String line, int run) {
+            this.line = line;
+            this.run = run;
+        }
+    }
+}
@@ -1,28 +1,55 @@
 package ru.ifmo.ctddev.golchin.crawler;
 
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Created by Roman on 12/02/2017.
  */
-class FNV1Hash implements HashingAlgorithm {
-    private static final int BUF_SIZE = 8192;
+class FNV1Hash extends AbstractHashingAlgorithm {
     private static final int FNV_PRIME = 0x01000193;
     private static final int FNV_SEED = 0x811C9DC5;
 
     public static final String ERROR_HASH = String.format("%08x", 0);
 
     @Override
-    public String hash(InputStream is) throws IOException {
-        int hash = FNV_SEED;
-        int size;
-        byte[] buffer = new byte[BUF_SIZE];
-        while ((size = is.read(buffer)) >= 0) {
-            hash = hash(buffer, 0, size, hash);
+    public Hasher newHasher() {
+        return new Hasher() {
+            private int hash = FNV_SEED;
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                if (buffer.hasArray()) {
+                    hash = hash(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), hash);
+                    buffer.position(buffer.limit());
+                } else {
+                    hash = hash(buffer, hash);
+                }
+            }
+
+            @Override
+            public long finish() {
+                return hash & 0xffffffffL;
+            }
+
+            @Override
+            public void reset() {
+                hash = FNV_SEED;
+            }
+
+            @Override
+            public int bits() {
+                return 32;
+            }
+        };
+    }
+
+    public int hash(ByteBuffer buffer, int seed) {
+        int hash = seed;
+        while (buffer.hasRemaining()) {
+            hash = (hash * FNV_PRIME) ^ (buffer.get() & 0xff);
         }
-        return String.format("%08x", hash);
+        return hash;
     }
 
     public int hash(byte[] bytes, int offset, int length, int seed) {
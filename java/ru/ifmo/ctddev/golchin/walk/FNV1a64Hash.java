@@ -0,0 +1,60 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 64-bit FNV-1a: xors the byte first and multiplies afterwards, which mixes the last bytes better than FNV-1.
+ */
+class FNV1a64Hash extends AbstractHashingAlgorithm {
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final long FNV_SEED = 0xCBF29CE484222325L;
+    private static final int CHUNK_SIZE = 8192;
+
+    @Override
+    public Hasher newHasher() {
+        return new Hasher() {
+            private long hash = FNV_SEED;
+            /* direct buffers are copied here by chunks, as the loop over an array runs several times faster */
+            private byte[] chunk;
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                if (buffer.hasArray()) {
+                    hash = hash(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit(), hash);
+                    buffer.position(buffer.limit());
+                } else {
+                    if (chunk == null) {
+                        chunk = new byte[CHUNK_SIZE];
+                    }
+                    while (buffer.hasRemaining()) {
+                        int size = Math.min(chunk.length, buffer.remaining());
+                        buffer.get(chunk, 0, size);
+                        hash = hash(chunk, 0, size, hash);
+                    }
+                }
+            }
+
+            @Override
+            public long finish() {
+                return hash;
+            }
+
+            @Override
+            public void reset() {
+                hash = FNV_SEED;
+            }
+
+            @Override
+            public int bits() {
+                return 64;
+            }
+        };
+    }
+
+    private static long hash(byte[] bytes, int from, int to, long hash) {
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+/**
+ * Writes groups of files with equal contents among the listed files and directories.
+ */
+public class FindDuplicates {
+    public static void main(String[] args) {
+        try {
+            WalkImpl duplicatesWalkImpl = new WalkImpl(args, "UTF-8", "UTF-8", new FNV1Hash(), DirectoryHandlingMode.DUPLICATES);
+            duplicatesWalkImpl.walk();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of file hashes, keyed by absolute path and validated by file key, size and modification time.
+ * <p>
+ * The index is a log of records: it is read into memory at start, new hashes are appended while walking,
+ * and the log is rewritten without stale records on {@link #close()} when they take too much space.
+ * In memory, paths and file keys are kept as 64-bit hashes only, in a table of primitives,
+ * so an entry takes less than a hundred bytes whatever the length of its path.
+ * Entries not used during the run are dropped on close if their files have been deleted or changed,
+ * which costs a stat per such entry and a pass over the log for their paths.
+ * A record torn by a crash is cut off, while the index is discarded if it was written by a different hashing algorithm.
+ * A file that cannot be read anymore keeps its hash until it is changed, as readability is not checked on lookups.
+ */
+class HashIndex implements Closeable {
+    private static final int MAGIC = 0x57414c4b;
+    private static final int VERSION = 3;
+    private static final int BUF_SIZE = 1 << 20;
+
+    private final Path file;
+    private final String algorithm;
+    private final Table entries = new Table();
+    private int records;
+    private DataOutputStream log;
+
+    /**
+     * @param algorithm name of the hashing algorithm with its parameters
+     */
+    HashIndex(Path file, String algorithm) throws IOException {
+        this.file = file;
+        this.algorithm = algorithm;
+        boolean valid = !Files.exists(file) || load();
+        if (!valid) {
+            System.err.println("Index " + file + " is damaged or outdated, rebuilding it");
+        }
+        if (!valid || !Files.exists(file)) {
+            compact(false);
+        }
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true), BUF_SIZE));
+    }
+
+    /**
+     * @return cached hash or {@code null} if the file has not been indexed or has changed since
+     */
+    Long get(Path path, BasicFileAttributes attrs) {
+        return entries.get(hash(key(path)), fileKey(attrs), attrs.size(), modified(attrs));
+    }
+
+    void put(Path path, BasicFileAttributes attrs, long hash) throws IOException {
+        String key = key(path);
+        long fileKey = fileKey(attrs);
+        long modified = modified(attrs);
+        entries.put(hash(key), fileKey, attrs.size(), modified, hash, true);
+        synchronized (this) {
+            write(log, key, fileKey, attrs.size(), modified, hash);
+            records++;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+        prune();
+        if (records > 2 * entries.live) {
+            compact(true);
+        }
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().toString();
+    }
+
+    /**
+     * Drops entries that have not been used during the run and no longer match their files,
+     * reading their paths from the log.
+     */
+    private void prune() throws IOException {
+        if (entries.untouched() == 0) {
+            return;
+        }
+        try (Records in = new Records()) {
+            for (int slot; (slot = in.next()) >= 0; ) {
+                if (!entries.is(slot, Table.TOUCHED)) {
+                    entries.mark(slot, Table.TOUCHED);
+                    if (!matches(in.path, slot)) {
+                        entries.remove(slot);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the file at the path still matches the entry
+     */
+    private boolean matches(String path, int slot) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            return entries.matches(slot, fileKey(attrs), attrs.size(), modified(attrs));
+        } catch (IOException | InvalidPathException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Loads the records, cutting off the last one if it has been torn by a crash while it was appended.
+     *
+     * @return {@code false} if the header has been truncated or the index has been written by other algorithm
+     */
+    private boolean load() throws IOException {
+        long complete;
+        try (FileInputStream stream = new FileInputStream(file.toFile())) {
+            FileChannel channel = stream.getChannel();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, BUF_SIZE));
+            if (!readHeader(in)) {
+                return false;
+            }
+            complete = headerLength();
+            long size = channel.size();
+            try {
+                while (complete < size) {
+                    String key = in.readUTF();
+                    entries.put(hash(key), in.readLong(), in.readLong(), in.readLong(), in.readLong(), false);
+                    records++;
+                    complete += recordLength(key);
+                }
+                return true;
+            } catch (EOFException e) {
+                System.err.println("Index " + file + " ends with a torn record, dropping it");
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(complete);
+        }
+        return true;
+    }
+
+    private boolean readHeader(DataInputStream in) throws IOException {
+        try {
+            return in.readInt() == MAGIC && in.readInt() == VERSION && algorithm.equals(in.readUTF());
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private long headerLength() {
+        return 2 * Integer.BYTES + 2 + utfLength(algorithm);
+    }
+
+    private static long recordLength(String key) {
+        return 2 + utfLength(key) + 4 * Long.BYTES;
+    }
+
+    /**
+     * @return length of the string in modified UTF-8, as written by {@link DataOutputStream#writeUTF}
+     */
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+        }
+        return length;
+    }
+
+    /**
+     * Rewrites the log with the latest record of each live entry.
+     *
+     * @param copy whether to copy the records from the current log, otherwise only the header is written
+     */
+    private void compact(boolean copy) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile()), BUF_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(algorithm);
+            if (copy) {
+                try (Records in = new Records()) {
+                    for (int slot; (slot = in.next()) >= 0; ) {
+                        if (!entries.is(slot, Table.WRITTEN)) {
+                            entries.mark(slot, Table.WRITTEN);
+                            write(out, in.path, in.fileKey, in.size, in.modified, in.hash);
+                            written++;
+                        }
+                    }
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = written;
+    }
+
+    private static void write(DataOutputStream out, String key, long fileKey, long size, long modified, long hash) throws IOException {
+        out.writeUTF(key);
+        out.writeLong(fileKey);
+        out.writeLong(size);
+        out.writeLong(modified);
+        out.writeLong(hash);
+    }
+
+    private static long fileKey(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return fileKey == null ? 0 : hash(fileKey.toString());
+    }
+
+    private static long modified(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return 64-bit FNV-1a hash of the characters of the string
+     */
+    private static long hash(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Reads the records of the log one by one, for those which are the latest records of live entries.
+     */
+    private class Records implements Closeable {
+        private final DataInputStream in;
+        private final long length;
+        private long position;
+        private String path;
+        private long fileKey;
+        private long size;
+        private long modified;
+        private long hash;
+
+        Records() throws IOException {
+            FileInputStream stream = new FileInputStream(file.toFile());
+            length = stream.getChannel().size();
+            in = new DataInputStream(new BufferedInputStream(stream, BUF_SIZE));
+            readHeader(in);
+            position = headerLength();
+        }
+
+        /**
+         * @return slot of the entry of the next current record or {@code -1} at the end of the log
+         */
+        int next() throws IOException {
+            while (position < length) {
+                path = in.readUTF();
+                fileKey = in.readLong();
+                size = in.readLong();
+                modified = in.readLong();
+                hash = in.readLong();
+                position += recordLength(path);
+                int slot = entries.find(HashIndex.hash(path));
+                if (slot >= 0 && entries.is(slot, fileKey, size, modified, hash)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Open-addressing table of entries by path hashes, with linear probing over parallel arrays.
+     * Removed entries are only marked, as removal happens on close.
+     */
+    private static class Table {
+        static final byte TOUCHED = 1;
+        static final byte REMOVED = 2;
+        static final byte WRITTEN = 4;
+        /* path hash of an empty slot, a path hashed to it is stored as 1 */
+        private static final long EMPTY = 0;
+
+        private long[] keys = new long[16];
+        private long[] fileKeys = new long[16];
+        private long[] sizes = new long[16];
+        private long[] modified = new long[16];
+        private long[] hashes = new long[16];
+        private byte[] flags = new byte[16];
+        private int size;
+        /* entries not removed */
+        private int live;
+
+        synchronized Long get(long key, long fileKey, long size, long modified) {
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+            flags[slot] |= TOUCHED;
+            return (flags[slot] & REMOVED) == 0 && matches(slot, fileKey, size, modified) ? hashes[slot] : null;
+        }
+
+        synchronized void put(long key, long fileKey, long size, long modified, long hash, boolean touched) {
+            int slot = find(key);
+            if (slot < 0) {
+                if (4 * (this.size + 1) > 3 * keys.length) {
+                    resize();
+                }
+                slot = -find(key) - 1;
+                keys[slot] = key == EMPTY ? 1 : key;
+                this.size++;
+                live++;
+            } else if ((flags[slot] & REMOVED) != 0) {
+                live++;
+            }
+            fileKeys[slot] = fileKey;
+            sizes[slot] = size;
+            this.modified[slot] = modified;
+            hashes[slot] = hash;
+            flags[slot] = touched ? TOUCHED : 0;
+        }
+
+        /**
+         * @return slot of the entry or {@code -(slot where it would be inserted) - 1}
+         */
+        synchronized int find(long key) {
+            if (key == EMPTY) {
+                key = 1;
+            }
+            int mask = keys.length - 1;
+            for (int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                if (keys[slot] == EMPTY) {
+                    return -slot - 1;
+                }
+            }
+        }
+
+        synchronized boolean matches(int slot, long fileKey, long size, long modified) {
+            return sizes[slot] == size && this.modified[slot] == modified && fileKeys[slot] == fileKey;
+        }
+
+        /**
+         * @return whether the slot holds a live entry with these values
+         */
+        synchronized boolean is(int slot, long fileKey, long size, long modified, long hash) {
+            return (flags[slot] & REMOVED) == 0 && matches(slot, fileKey, size, modified) && hashes[slot] == hash;
+        }
+
+        synchronized boolean is(int slot, byte flag) {
+            return (flags[slot] & flag) != 0;
+        }
+
+        synchronized void mark(int slot, byte flag) {
+            flags[slot] |= flag;
+        }
+
+        synchronized void remove(int slot) {
+            flags[slot] |= REMOVED;
+            live--;
+        }
+
+        synchronized int untouched() {
+            int count = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != EMPTY && (flags[slot] & (TOUCHED | REMOVED)) == 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldFileKeys = fileKeys;
+            long[] oldSizes = sizes;
+            long[] oldModified = modified;
+            long[] oldHashes = hashes;
+            byte[] oldFlags = flags;
+            int capacity = 2 * oldKeys.length;
+            keys = new long[capacity];
+            fileKeys = new long[capacity];
+            sizes = new long[capacity];
+            modified = new long[capacity];
+            hashes = new long[capacity];
+            flags = new byte[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = -find(oldKeys[i]) - 1;
+                    keys[slot] = oldKeys[i];
+                    fileKeys[slot] = oldFileKeys[i];
+                    sizes[slot] = oldSizes[i];
+                    modified[slot] = oldModified[i];
+                    hashes[slot] = oldHashes[i];
+                    flags[slot] = oldFlags[i];
+                }
+            }
+        }
+    }
+}
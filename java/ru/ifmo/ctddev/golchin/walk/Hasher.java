@@ -0,0 +1,28 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental hashing state. A hasher is not thread-safe, but may be reused for any number of inputs:
+ * {@link #reset()}, feed the data with {@link #update(ByteBuffer)}, then take the {@link #finish()} value.
+ */
+public interface Hasher {
+    /**
+     * Consumes all remaining bytes of {@code buffer}, leaving its position at the limit.
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * Does not change the state, so it may be called again or followed by more updates.
+     *
+     * @return hash of the bytes consumed since the last reset, in the lower {@link #bits()} bits
+     */
+    long finish();
+
+    void reset();
+
+    /**
+     * @return hash width, either 32 or 64
+     */
+    int bits();
+}
@@ -2,6 +2,9 @@ package ru.ifmo.ctddev.golchin.crawler;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 /**
  * Created by Roman on 12/02/2017.
@@ -9,4 +12,44 @@ import java.io.InputStream;
 public interface HashingAlgorithm {
 
     String hash(InputStream is) throws IOException;
+
+    /**
+     * Hashes the rest of the file starting from the current position of {@code channel}.
+     * Intended for large files, where implementations may avoid copying the data to the heap.
+     */
+    default String hash(FileChannel channel) throws IOException {
+        return hash(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Same as {@link #hash(InputStream)}, but returns the hash as a number, so no string is built for it.
+     *
+     * @return hash in the lower {@link Hasher#bits()} bits
+     */
+    default long hashValue(InputStream is) throws IOException {
+        Hasher hasher = newHasher();
+        byte[] bytes = new byte[8192];
+        int size;
+        while ((size = is.read(bytes)) >= 0) {
+            hasher.update(ByteBuffer.wrap(bytes, 0, size));
+        }
+        return hasher.finish();
+    }
+
+    /**
+     * Numeric counterpart of {@link #hash(FileChannel)}.
+     */
+    default long hashValue(FileChannel channel) throws IOException {
+        return hashValue(Channels.newInputStream(channel));
+    }
+
+    /**
+     * @return new hashing state, which the caller may reuse for many inputs
+     */
+    Hasher newHasher();
+
+    /**
+     * @return hash reported for files that could not be read
+     */
+    String errorHash();
 }
@@ -0,0 +1,160 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Compares two outputs of {@link Walk} or {@link RecursiveWalk}, listing files that have been
+ * added ({@code + <hash> <path>}), changed ({@code ~ <new hash> <path>}) or removed ({@code - <hash> <path>}).
+ * <p>
+ * Both outputs are sorted by path with {@link ExternalSorter}, so they may be much larger than the heap,
+ * and then merged, writing differences as they are found. If a path is listed several times,
+ * its first line is used.
+ * <p>
+ * Usage: {@code ManifestDiff <old> <new> <output> [--memory MB] [--temp DIR]}.
+ */
+public class ManifestDiff {
+    private final ExternalSorter sorter;
+    private long malformed;
+
+    private ManifestDiff(ExternalSorter sorter) {
+        this.sorter = sorter;
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length < 3) {
+                throw new IllegalArgumentException("expected old and new manifests and output file, got " + args.length);
+            }
+            long memory = 64L << 20;
+            Path tempDir = null;
+            for (int i = 3; i < args.length; i++) {
+                if ("--memory".equals(args[i]) && i + 1 < args.length) {
+                    memory = megabytes(args[++i]);
+                } else if ("--temp".equals(args[i]) && i + 1 < args.length) {
+                    tempDir = Paths.get(args[++i]);
+                } else {
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+            new ManifestDiff(new ExternalSorter(ManifestDiff::comparePaths, memory, tempDir)).diff(args[0], args[1], args[2]);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private static long megabytes(String value) throws IllegalArgumentException {
+        try {
+            long megabytes = Long.parseLong(value);
+            if (megabytes > 0 && megabytes < 1L << 43) {
+                return megabytes << 20;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("expected positive number after --memory");
+    }
+
+    private void diff(String oldFileName, String newFileName, String outputFileName) {
+        try (Manifest oldManifest = new Manifest(oldFileName);
+             Manifest newManifest = new Manifest(newFileName);
+             Writer writer = new OutputEncoder(new FileOutputStream(outputFileName), "UTF-8")) {
+            String oldLine = oldManifest.next();
+            String newLine = newManifest.next();
+            while (oldLine != null || newLine != null) {
+                int order = oldLine == null ? 1 : newLine == null ? -1 : comparePaths(oldLine, newLine);
+                if (order < 0) {
+                    write(writer, '-', oldLine);
+                    oldLine = oldManifest.next();
+                } else if (order > 0) {
+                    write(writer, '+', newLine);
+                    newLine = newManifest.next();
+                } else {
+                    if (!oldLine.regionMatches(0, newLine, 0, oldLine.indexOf(' ') + 1)) {
+                        write(writer, '~', newLine);
+                    }
+                    oldLine = oldManifest.next();
+                    newLine = newManifest.next();
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("Unable to open file: " + e.getMessage());
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("an I/O error occurred while comparing manifests: " + e.getMessage());
+        }
+        if (malformed > 0) {
+            System.err.println(malformed + " malformed lines skipped");
+        }
+    }
+
+    private static void write(Writer writer, char change, String line) throws IOException {
+        writer.write(change);
+        writer.write(' ');
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    /**
+     * Compares the parts of {@code <hash> <path>} lines after the first space, without copying them.
+     */
+    private static int comparePaths(String a, String b) {
+        int i = a.indexOf(' ') + 1;
+        int j = b.indexOf(' ') + 1;
+        while (i < a.length() && j < b.length()) {
+            int result = Character.compare(a.charAt(i++), b.charAt(j++));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Well-formed lines of a manifest sorted by path, one per path.
+     */
+    private class Manifest implements Closeable {
+        private final ExternalSorter.Lines lines;
+        private String next;
+
+        Manifest(String fileName) throws IOException {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+                lines = sorter.sort(reader);
+            }
+            try {
+                next = read();
+            } catch (IOException e) {
+                lines.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return next line or {@code null} if there are no more lines
+         */
+        String next() throws IOException {
+            String line = next;
+            if (line != null) {
+                do {
+                    next = read();
+                } while (next != null && comparePaths(line, next) == 0);
+            }
+            return line;
+        }
+
+        private String read() throws IOException {
+            String line;
+            while ((line = lines.next()) != null && line.indexOf(' ') <= 0) {
+                malformed++;
+            }
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            lines.close();
+        }
+    }
+}
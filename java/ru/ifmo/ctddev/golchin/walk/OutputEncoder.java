@@ -0,0 +1,120 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writer of the output files: characters are collected in a reusable buffer, encoded by blocks
+ * with a single {@link CharsetEncoder} and written to the stream by large chunks,
+ * so writing a line allocates nothing.
+ * Like {@link java.io.OutputStreamWriter}, replaces characters that cannot be encoded. Not thread-safe.
+ */
+class OutputEncoder extends Writer {
+    private static final int CHAR_BUF_SIZE = 64 << 10;
+    private static final int BYTE_BUF_SIZE = 1 << 20;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final OutputStream out;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUF_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUF_SIZE);
+
+    OutputEncoder(OutputStream out, String charset) {
+        this.out = out;
+        encoder = Charset.forName(charset).newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encode(false);
+        }
+        chars.put((char) c);
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int size = Math.min(length, chars.remaining());
+            chars.put(buffer, offset, size);
+            offset += size;
+            length -= size;
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int size = Math.min(length, chars.remaining());
+            chars.put(string, offset, offset + size);
+            offset += size;
+            length -= size;
+        }
+    }
+
+    /**
+     * Writes the lower {@code bits} bits of {@code value} as zero-padded lowercase hex digits.
+     */
+    void writeHex(long value, int bits) throws IOException {
+        for (int shift = bits - 4; shift >= 0; shift -= 4) {
+            write(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encode(false);
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isUnderflow()) {
+                break;
+            }
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                result.throwException();
+            }
+        }
+        /* an unpaired high surrogate stays for the next block */
+        chars.compact();
+    }
+
+    private void drain() throws IOException {
+        out.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
+    }
+}
@@ -0,0 +1,307 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Walks a directory tree on a {@link ForkJoinPool}: files are hashed concurrently, while directories are listed
+ * ahead of the writer and the lines are written in the same order as {@link Files#walkFileTree} visits them.
+ * At most {@code lookahead} nodes, the next ones in the writer's order, are started ahead of the writer,
+ * the rest wait until the writer catches up, so memory does not grow with the size of the tree.
+ */
+class ParallelWalker {
+    private final WalkImpl walk;
+    private final ForkJoinPool pool;
+    private final WalkFilter filter;
+    private final int lookahead;
+
+    ParallelWalker(WalkImpl walk, ForkJoinPool pool, WalkFilter filter, int lookahead) {
+        this.walk = walk;
+        this.pool = pool;
+        this.filter = filter;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Writes hashes of all files under {@code dir}.
+     * Like {@link Files#walkFileTree}, stops at the first file or directory that cannot be opened.
+     *
+     * @throws IOException if the walk has been stopped; lines written before the failure are kept
+     */
+    void walk(Path dir, Writer writer) throws IOException {
+        Traversal traversal = new Traversal(dir);
+        try {
+            traversal.write(traversal.begin(), writer);
+        } catch (IOException e) {
+            traversal.cancelled.set(true);
+            throw e;
+        }
+    }
+
+    /**
+     * State of a single walk. Nodes are started by a cursor that runs ahead of the writer in the same order,
+     * so the nodes in flight are always the next {@code lookahead} ones the writer needs.
+     * The cursor is moved by the writer's thread, which lists directories as the cursor enters them:
+     * a listing queued on the pool behind the hashes would stop the cursor at every directory.
+     */
+    private class Traversal {
+        private final Path root;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        /* directories on the path of the cursor, the innermost one on top */
+        private final Deque<Frame> cursor = new ArrayDeque<>();
+        /* nodes started and not yet taken by the writer */
+        private int ahead;
+
+        Traversal(Path root) {
+            this.root = root;
+        }
+
+        private Node begin() {
+            Node node = new Node(root, (BasicFileAttributes) null);
+            start(node);
+            return node;
+        }
+
+        /**
+         * Moves the cursor forward while the window allows.
+         */
+        private void advance() {
+            while (ahead < lookahead && !cursor.isEmpty() && !cancelled.get()) {
+                Frame frame = cursor.peek();
+                if (frame.next < frame.children.size()) {
+                    start(frame.children.get(frame.next++));
+                } else {
+                    cursor.pop();
+                }
+            }
+        }
+
+        private void start(Node node) {
+            ahead++;
+            node.start();
+            if (node.directory) {
+                /* the writer reports a failed listing */
+                List<Node> children = node.children.isCompletedExceptionally()
+                        ? Collections.emptyList() : node.children.join();
+                cursor.push(new Frame(children));
+            }
+        }
+
+        /**
+         * Called by the writer once it has taken the result of a node.
+         */
+        private void done() {
+            ahead--;
+            advance();
+        }
+
+        private CompletableFuture<Long> hash(Path file, BasicFileAttributes attrs) {
+            if (walk.isAsync()) {
+                try {
+                    return walk.hashAsync(file, attrs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+            }
+            return walk.supplyAsync(file, () -> {
+                if (cancelled.get()) {
+                    /* the walk has failed, nothing is written anymore */
+                    return null;
+                }
+                try {
+                    return walk.hash(file, attrs);
+                } catch (FileNotFoundException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, pool);
+        }
+
+        private List<Node> list(Path dir) {
+            if (cancelled.get()) {
+                return Collections.emptyList();
+            }
+            long start = System.nanoTime();
+            walk.watchDirectory(dir, root);
+            List<Path> entries = new ArrayList<>();
+            IOException failure = null;
+            List<Node> nodes = new ArrayList<>();
+            try {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path child : stream) {
+                        entries.add(child);
+                    }
+                } catch (DirectoryIteratorException e) {
+                    failure = e.getCause();
+                }
+                if (walk.entryOrder() != null) {
+                    entries.sort(walk.entryOrder());
+                }
+                for (Path child : entries) {
+                    if (walk.isDone(child)) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        /* fails the walk at this entry, as Files.walkFileTree does, after the ones before it */
+                        nodes.add(new Node(child, e));
+                        return nodes;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (filter.acceptsDirectory(root, child)) {
+                            nodes.add(new Node(child, (BasicFileAttributes) null));
+                        }
+                    } else if (filter.acceptsFile(root, child, attrs)) {
+                        nodes.add(new Node(child, attrs));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                walk.stats().traversed(System.nanoTime() - start);
+            }
+            if (failure != null) {
+                nodes.add(new Node(dir, failure));
+            }
+            return nodes;
+        }
+
+        private void write(Node node, Writer writer) throws IOException {
+            /* the cursor has started the node: every node before it has been taken, so the window was not full */
+            if (!node.directory) {
+                long hash = join(node.hash);
+                List<String> entries = node.entries == null ? null : join(node.entries);
+                done();
+                walk.hashed(node.path, hash);
+                walk.write(writer, hash, node.path);
+                if (entries != null) {
+                    for (String line : entries) {
+                        walk.write(writer, line);
+                    }
+                }
+                walk.fileDone(node.path);
+            } else {
+                walk.directoryStarted(node.path);
+                List<Node> children = join(node.children);
+                done();
+                for (Node child : children) {
+                    write(child, writer);
+                }
+                walk.directoryDone(node.path);
+            }
+        }
+
+        /**
+         * Either a file with its pending hash, and pending lines of its entries if it is an archive,
+         * or a directory with its pending listing. Nothing is read until the node is started.
+         */
+        private class Node {
+            private final Path path;
+            private final boolean directory;
+            /* attributes of a file read by the listing */
+            private final BasicFileAttributes attrs;
+            /* why the entry could not be read by the listing */
+            private final IOException failure;
+            private final CompletableFuture<Long> hash = new CompletableFuture<>();
+            private final CompletableFuture<List<Node>> children = new CompletableFuture<>();
+            private final CompletableFuture<List<String>> entries;
+
+            /**
+             * @param attrs attributes of a file or {@code null} for a directory
+             */
+            Node(Path path, BasicFileAttributes attrs) {
+                this.path = path;
+                this.attrs = attrs;
+                failure = null;
+                directory = attrs == null;
+                entries = !directory && walk.isArchive(path) ? new CompletableFuture<>() : null;
+            }
+
+            /**
+             * An entry that fails the walk once the writer reaches it.
+             */
+            Node(Path path, IOException failure) {
+                this.path = path;
+                this.failure = failure;
+                attrs = null;
+                directory = false;
+                entries = null;
+            }
+
+            void start() {
+                if (failure != null) {
+                    hash.completeExceptionally(new UncheckedIOException(failure));
+                } else if (directory) {
+                    try {
+                        children.complete(list(path));
+                    } catch (RuntimeException e) {
+                        children.completeExceptionally(e);
+                    }
+                } else {
+                    if (entries != null) {
+                        complete(CompletableFuture.supplyAsync(() -> cancelled.get()
+                                ? Collections.<String>emptyList() : walk.hashArchive(path), pool), entries);
+                    }
+                    try {
+                        complete(Traversal.this.hash(path, attrs), hash);
+                    } catch (RuntimeException e) {
+                        hash.completeExceptionally(e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Children of a directory on the path of the cursor with the position of the next one to start.
+         */
+        private class Frame {
+            private final List<Node> children;
+            private int next;
+
+            Frame(List<Node> children) {
+                this.children = children;
+            }
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static <T> void complete(CompletableFuture<T> from, CompletableFuture<T> to) {
+        from.whenComplete((value, e) -> {
+            if (e == null) {
+                to.complete(value);
+            } else {
+                to.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+}
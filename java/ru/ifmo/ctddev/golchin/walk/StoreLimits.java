@@ -0,0 +1,156 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of files read at once from each {@link FileStore}, so that parallel walks
+ * do not thrash rotational disks with random reads while keeping solid-state ones busy.
+ * <p>
+ * A store gets the limit configured for one of its mount points, or {@link #ROTATIONAL_LIMIT}
+ * if it is a rotational disk according to {@code /sys/class/block}, and is not limited otherwise.
+ * Tasks of a pool and asynchronous reads wait for a permit in the queue of an {@link AsyncSemaphore}
+ * without holding a thread, so the threads are left to reads from other stores.
+ */
+class StoreLimits {
+    private static final int ROTATIONAL_LIMIT = 2;
+    private static final Path SYS_BLOCK = Paths.get("/sys/class/block");
+
+    private final Map<FileStore, Integer> configured = new HashMap<>();
+    /* permits by device, or by store where devices are not available */
+    private final Map<Object, AsyncSemaphore> permits = new ConcurrentHashMap<>();
+    /* files of a directory usually come one after another, and looking up a store is costly */
+    private final ThreadLocal<Directory> last = new ThreadLocal<>();
+    /* permits of the store held by the task running on the thread */
+    private final ThreadLocal<AsyncSemaphore> held = new ThreadLocal<>();
+
+    /**
+     * @param limits limits by mount points or any paths on the stores
+     */
+    StoreLimits(Map<String, Integer> limits) throws IllegalArgumentException {
+        for (Map.Entry<String, Integer> limit : limits.entrySet()) {
+            try {
+                configured.put(Files.getFileStore(Paths.get(limit.getKey())), limit.getValue());
+            } catch (IOException | InvalidPathException e) {
+                throw new IllegalArgumentException("unable to find file store of " + limit.getKey());
+            }
+        }
+    }
+
+    /**
+     * Waits for a permit to read the file. Meant for threads of their own, such as pipeline hashers:
+     * tasks of a pool are to be queued with {@link #supplyAsync} instead of parking its threads.
+     *
+     * @return semaphore to release when the file has been read,
+     * or {@code null} if the current task already holds a permit of the store
+     */
+    AsyncSemaphore acquire(Path file) throws InterruptedException {
+        AsyncSemaphore semaphore = permits(file);
+        if (held.get() == semaphore) {
+            return null;
+        }
+        CompletableFuture<Void> permit = semaphore.acquire();
+        try {
+            permit.get();
+        } catch (ExecutionException ignored) {
+            /* permits are never failed */
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false)) {
+                semaphore.release();
+            }
+            throw e;
+        }
+        return semaphore;
+    }
+
+    /**
+     * Submits the task once a permit to read the file has been taken, so waiting for it holds no thread.
+     * The task holds the permit while it runs, and its own {@link #acquire} of the file returns at once.
+     */
+    <T> CompletableFuture<T> supplyAsync(Path file, Supplier<T> task, Executor executor) {
+        AsyncSemaphore semaphore = permits(file);
+        return semaphore.acquire().thenApplyAsync(ignored -> {
+            held.set(semaphore);
+            try {
+                return task.get();
+            } finally {
+                held.remove();
+                semaphore.release();
+            }
+        }, executor);
+    }
+
+    /**
+     * @return permits of the store of the file, to be taken and released by the caller
+     */
+    AsyncSemaphore permits(Path file) {
+        Path dir = file.toAbsolutePath().getParent();
+        Directory cached = last.get();
+        if (cached != null && cached.path.equals(dir)) {
+            return cached.permits;
+        }
+        AsyncSemaphore semaphore;
+        try {
+            Object device;
+            try {
+                device = Files.getAttribute(dir, "unix:dev");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                device = Files.getFileStore(dir);
+            }
+            semaphore = permits.computeIfAbsent(device, key -> new AsyncSemaphore(limit(dir)));
+        } catch (IOException | SecurityException e) {
+            /* the file will fail to open anyway */
+            semaphore = new AsyncSemaphore(Integer.MAX_VALUE);
+        }
+        last.set(new Directory(dir, semaphore));
+        return semaphore;
+    }
+
+    private int limit(Path dir) {
+        try {
+            FileStore store = Files.getFileStore(dir);
+            Integer limit = configured.get(store);
+            if (limit != null) {
+                return limit;
+            }
+            return isRotational(store) ? ROTATIONAL_LIMIT : Integer.MAX_VALUE;
+        } catch (IOException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static boolean isRotational(FileStore store) {
+        if (!store.name().startsWith("/dev/")) {
+            return false;
+        }
+        try {
+            Path device = SYS_BLOCK.resolve(Paths.get(store.name()).toRealPath().getFileName());
+            Path rotational = device.resolve("queue/rotational");
+            if (!Files.exists(rotational)) {
+                /* a partition, the queue belongs to its disk */
+                rotational = device.toRealPath().getParent().resolve("queue/rotational");
+            }
+            return "1".equals(new String(Files.readAllBytes(rotational), StandardCharsets.US_ASCII).trim());
+        } catch (IOException | InvalidPathException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static class Directory {
+        private final Path path;
+        private final AsyncSemaphore permits;
+
+        Directory(Path path, AsyncSemaphore permits) {
+            this.path = path;
+            this.permits = permits;
+        }
+    }
+}
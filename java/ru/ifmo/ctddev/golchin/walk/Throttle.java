@@ -0,0 +1,253 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of reading files and of opening them, so that a walk can run in the background
+ * without taking the disk away from other processes.
+ * <p>
+ * Each rate is a token bucket holding at most one second worth of tokens. A reader takes the tokens
+ * for what it has just read and, if the bucket has gone below zero, waits until it refills,
+ * so a large read is allowed at once and paid for afterwards. The rates may be changed while walking,
+ * through JMX or through a control file of {@code read-rate=BYTES} and {@code open-rate=FILES} lines,
+ * which is checked every second.
+ */
+class Throttle implements ThrottleMXBean, Closeable {
+    private static final String OBJECT_NAME = "ru.ifmo.ctddev.golchin.walk:type=Throttle";
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Bucket reads;
+    private final Bucket opens;
+    private final Path controlFile;
+    private FileTime controlModified;
+    private ScheduledExecutorService poller;
+    private ObjectName objectName;
+
+    /**
+     * @param readRate    bytes per second, zero for no limit
+     * @param openRate    files per second, zero for no limit
+     * @param controlFile file to read the rates from or {@code null}
+     */
+    Throttle(long readRate, long openRate, Path controlFile) {
+        reads = new Bucket(readRate);
+        opens = new Bucket(openRate);
+        this.controlFile = controlFile;
+        if (controlFile != null) {
+            poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "walk-throttle");
+                thread.setDaemon(true);
+                return thread;
+            });
+            readControlFile();
+            poller.scheduleWithFixedDelay(this::readControlFile, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Waits, if needed, before opening a file.
+     */
+    void open() throws InterruptedIOException {
+        sleep(reserveOpen());
+    }
+
+    /**
+     * Waits, if needed, after reading the given number of bytes.
+     */
+    void read(long bytes) throws InterruptedIOException {
+        sleep(reserveRead(bytes));
+    }
+
+    /**
+     * Takes the tokens for opening a file without waiting.
+     *
+     * @return nanoseconds to wait before opening
+     */
+    long reserveOpen() {
+        return opens.take(1);
+    }
+
+    /**
+     * Takes the tokens for the bytes read without waiting.
+     *
+     * @return nanoseconds to wait before reading more
+     */
+    long reserveRead(long bytes) {
+        return reads.take(bytes);
+    }
+
+    /**
+     * @return whether reads are limited now, in which case files should be read through a stream rather than mapped,
+     * as the reads of a mapped file cannot be counted
+     */
+    boolean limitsReads() {
+        return reads.rate > 0;
+    }
+
+    /**
+     * @return stream which reads at most at the read rate
+     */
+    InputStream limit(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    Throttle.this.read(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int size = super.read(b, off, len);
+                if (size > 0) {
+                    Throttle.this.read(size);
+                }
+                return size;
+            }
+        };
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttled");
+            }
+        }
+    }
+
+    private void readControlFile() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(controlFile);
+            if (modified.equals(controlModified)) {
+                return;
+            }
+            controlModified = modified;
+            List<String> lines = Files.readAllLines(controlFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                String key = separator < 0 ? line : line.substring(0, separator).trim();
+                long rate;
+                try {
+                    rate = separator < 0 ? -1 : Long.parseLong(line.substring(separator + 1).trim());
+                } catch (NumberFormatException e) {
+                    rate = -1;
+                }
+                if (rate >= 0 && "read-rate".equals(key)) {
+                    setReadRate(rate);
+                } else if (rate >= 0 && "open-rate".equals(key)) {
+                    setOpenRate(rate);
+                } else {
+                    System.err.println("Invalid line in throttle control file " + controlFile + ": " + line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            controlModified = null;
+        } catch (IOException e) {
+            System.err.println("Unable to read throttle control file " + controlFile);
+        }
+    }
+
+    /**
+     * Registers the throttle in the platform MBean server; only one walk at a time can be registered.
+     */
+    void register() {
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            System.err.println("Unable to register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public long getReadRate() {
+        return reads.rate;
+    }
+
+    @Override
+    public void setReadRate(long bytesPerSecond) {
+        reads.setRate(bytesPerSecond);
+    }
+
+    @Override
+    public long getOpenRate() {
+        return opens.rate;
+    }
+
+    @Override
+    public void setOpenRate(long opensPerSecond) {
+        opens.setRate(opensPerSecond);
+    }
+
+    private static class Bucket {
+        private volatile long rate;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        Bucket(long rate) {
+            this.rate = Math.max(rate, 0);
+            tokens = this.rate;
+        }
+
+        long take(long amount) {
+            if (rate <= 0) {
+                return 0;
+            }
+            synchronized (this) {
+                long rate = this.rate;
+                if (rate <= 0) {
+                    return 0;
+                }
+                long now = System.nanoTime();
+                tokens = Math.min(rate, tokens + (double) (now - last) * rate / SECOND);
+                last = now;
+                tokens -= amount;
+                return tokens >= 0 ? 0 : (long) (-tokens * SECOND / rate);
+            }
+        }
+
+        synchronized void setRate(long rate) {
+            rate = Math.max(rate, 0);
+            if (rate != this.rate) {
+                /* a debt taken at the old rate is forgiven */
+                tokens = Math.max(Math.min(tokens, rate), 0);
+                last = System.nanoTime();
+                this.rate = rate;
+            }
+        }
+    }
+}
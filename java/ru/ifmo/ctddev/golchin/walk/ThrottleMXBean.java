@@ -0,0 +1,20 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+/**
+ * Management interface of {@link Throttle}. Zero means no limit.
+ */
+public interface ThrottleMXBean {
+    long getReadRate();
+
+    /**
+     * @param bytesPerSecond bytes read from files per second, zero to read at full speed
+     */
+    void setReadRate(long bytesPerSecond);
+
+    long getOpenRate();
+
+    /**
+     * @param opensPerSecond files opened per second, zero to open at full speed
+     */
+    void setOpenRate(long opensPerSecond);
+}
@@ -0,0 +1,128 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hashes a file as a two-level tree: fixed-size chunks are hashed in parallel,
+ * then the root hash is computed over the little-endian chunk digests.
+ * <p>
+ * The root depends on the chunk size, so it differs from the plain hash of the file even for one chunk.
+ */
+class TreeHasher {
+    private final long chunkSize;
+    private final ForkJoinPool pool;
+    private final ChunkWriter chunkWriter;
+    private final Throttle throttle;
+    private final ThreadLocal<Hasher> hashers;
+
+    /**
+     * @param pool        pool to hash chunks on, the common pool is used by walks without {@code --threads}
+     * @param chunkWriter receiver of chunk digests, may be {@code null}
+     * @param throttle    limits of reading, may be {@code null}
+     */
+    TreeHasher(HashingAlgorithm algorithm, long chunkSize, ForkJoinPool pool, ChunkWriter chunkWriter, Throttle throttle) {
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+        this.chunkWriter = chunkWriter;
+        this.throttle = throttle;
+        hashers = ThreadLocal.withInitial(algorithm::newHasher);
+    }
+
+    long hash(Path file, FileChannel channel) throws IOException {
+        long size = channel.size();
+        long count = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if (count > Integer.MAX_VALUE / 8) {
+            throw new IOException("Too many chunks in " + file + ", increase the chunk size");
+        }
+        long[] digests = new long[(int) count];
+        ChunkTask task = new ChunkTask(channel, size, digests, 0, digests.length);
+        try {
+            if (digests.length == 1 || ForkJoinTask.getPool() == pool) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Hasher hasher = hashers.get();
+        hasher.reset();
+        int bytes = hasher.bits() / 8;
+        ByteBuffer leaves = ByteBuffer.allocate(digests.length * bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (long digest : digests) {
+            if (bytes == 4) {
+                leaves.putInt((int) digest);
+            } else {
+                leaves.putLong(digest);
+            }
+        }
+        leaves.flip();
+        hasher.update(leaves);
+        if (chunkWriter != null) {
+            writeChunks(file, size, digests, hasher.bits());
+        }
+        return hasher.finish();
+    }
+
+    private void writeChunks(Path file, long size, long[] digests, int bits) throws IOException {
+        long[] offsets = new long[digests.length];
+        long[] lengths = new long[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            offsets[i] = i * chunkSize;
+            lengths[i] = Math.min(chunkSize, size - offsets[i]);
+        }
+        chunkWriter.write(file, offsets, lengths, digests, digests.length, bits);
+    }
+
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long size;
+        private final long[] digests;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long size, long[] digests, int from, int to) {
+            this.channel = channel;
+            this.size = size;
+            this.digests = digests;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(channel, size, digests, from, middle),
+                        new ChunkTask(channel, size, digests, middle, to));
+                return;
+            }
+            long position = from * chunkSize;
+            Hasher hasher = hashers.get();
+            hasher.reset();
+            try {
+                if (position < size) {
+                    long length = Math.min(chunkSize, size - position);
+                    hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                    if (throttle != null) {
+                        throttle.read(length);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            digests[from] = hasher.finish();
+        }
+    }
+}
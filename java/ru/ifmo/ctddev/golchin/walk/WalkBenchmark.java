@@ -0,0 +1,275 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Benchmarks of hashing and of whole walks over file trees generated in a temporary directory.
+ * Each benchmark is run for several warmup iterations, then the throughput of the measured ones
+ * is reported as mean and standard deviation.
+ * <p>
+ * Usage: {@code WalkBenchmark [scale [iterations]]}, where {@code scale} multiplies fixture sizes.
+ * Trees are walked from the page cache, so the end-to-end results show CPU and system call costs, not the disk.
+ */
+public class WalkBenchmark {
+    private static final int WARMUP = 3;
+    /* milliseconds a hash of the lookahead benchmarks takes */
+    private static final int LATENCY = 5;
+    private static final Random RANDOM = new Random(2017);
+    /* keeps the results observable, so that the JIT does not eliminate the benchmarked code */
+    private static volatile long sink;
+
+    private final int scale;
+    private final int iterations;
+    private final Path root;
+
+    private WalkBenchmark(int scale, int iterations, Path root) {
+        this.scale = scale;
+        this.iterations = iterations;
+        this.root = root;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Path root = Files.createTempDirectory("walk-benchmark");
+        try {
+            WalkBenchmark benchmark = new WalkBenchmark(scale, iterations, root);
+            benchmark.hashing();
+            benchmark.streams();
+            benchmark.walks();
+            benchmark.lookahead();
+        } finally {
+            delete(root);
+        }
+    }
+
+    private void hashing() throws IOException {
+        byte[] bytes = randomBytes(16 << 20);
+        FNV1Hash fnv = new FNV1Hash();
+        measure("FNV1Hash.hash(byte[], int, int, int)", bytes.length, "MB",
+                () -> sink += fnv.hash(bytes, 0, bytes.length, 0));
+        for (HashingAlgorithm algorithm : algorithms()) {
+            Hasher hasher = algorithm.newHasher();
+            ByteBuffer heap = ByteBuffer.wrap(bytes);
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes);
+            for (ByteBuffer buffer : Arrays.asList(heap, direct)) {
+                measure(name(algorithm) + " update(" + (buffer.isDirect() ? "direct" : "heap") + " ByteBuffer)", bytes.length, "MB", () -> {
+                    buffer.clear();
+                    hasher.reset();
+                    hasher.update(buffer);
+                    sink += hasher.finish();
+                });
+            }
+        }
+    }
+
+    private void streams() throws IOException {
+        Path file = root.resolve("stream.bin");
+        long size = 64L * scale << 20;
+        writeRandomFile(file, size);
+        HashingAlgorithm fnv = new FNV1Hash();
+        for (int bufferSize : new int[]{512, 4 << 10, 8 << 10, 64 << 10, 1 << 20}) {
+            byte[] buffer = new byte[bufferSize];
+            Hasher hasher = fnv.newHasher();
+            measure("FileInputStream with " + bufferSize + " byte buffer", size, "MB", () -> {
+                hasher.reset();
+                try (InputStream is = Files.newInputStream(file)) {
+                    int read;
+                    while ((read = is.read(buffer)) >= 0) {
+                        hasher.update(ByteBuffer.wrap(buffer, 0, read));
+                    }
+                }
+                sink += hasher.finish();
+            });
+        }
+        measure("HashingAlgorithm.hash(InputStream)", size, "MB", () -> {
+            try (InputStream is = Files.newInputStream(file)) {
+                sink += fnv.hash(is).hashCode();
+            }
+        });
+        measure("HashingAlgorithm.hash(FileChannel)", size, "MB", () -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                sink += fnv.hash(channel).hashCode();
+            }
+        });
+    }
+
+    private void walks() throws IOException {
+        Map<String, Path> trees = new LinkedHashMap<>();
+        trees.put("tiny files", tree("tiny", 100 * scale, 200, 512));
+        trees.put("huge files", tree("huge", 1, 4, 64L * scale << 20));
+        trees.put("deep nesting", deepTree(200 * scale));
+        trees.put("wide directory", tree("wide", 1, 20000 * scale, 4096));
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        List<String[]> variants = Arrays.asList(
+                new String[0],
+                new String[]{"--threads", Integer.toString(threads)},
+                new String[]{"--async", "64"},
+                new String[]{"--algorithm", "xxhash64", "--threads", Integer.toString(threads)}
+        );
+        for (Map.Entry<String, Path> tree : trees.entrySet()) {
+            long files = countFiles(tree.getValue());
+            Path input = root.resolve("input.txt");
+            Files.write(input, Collections.singletonList(tree.getValue().toString()), StandardCharsets.UTF_8);
+            for (String[] variant : variants) {
+                String[] args = new String[variant.length + 2];
+                args[0] = input.toString();
+                args[1] = root.resolve("output.txt").toString();
+                System.arraycopy(variant, 0, args, 2, variant.length);
+                measure("RecursiveWalk " + tree.getKey() + " " + String.join(" ", variant), files, "files",
+                        () -> new WalkImpl(args, "UTF-8", "UTF-8", new FNV1Hash(), DirectoryHandlingMode.RECURSIVE_WALK).walk());
+            }
+        }
+    }
+
+    /**
+     * Walks trees of many small directories with a hash that takes {@link #LATENCY} per file, as on a slow store,
+     * so that the rate shows how many hashes the lookahead window keeps in flight.
+     * With every thread busy it is {@code threads / LATENCY} files per second;
+     * the store is allowed as many reads, as a rotational disk would get only two.
+     */
+    private void lookahead() throws IOException {
+        Map<String, Path> trees = new LinkedHashMap<>();
+        trees.put("wide tree", tree("lookahead-wide", 500 * scale, 4, 512));
+        trees.put("bushy tree", tree("lookahead-bushy", 20 * scale, 50, 512));
+        int threads = 8;
+        HashingAlgorithm slow = new FNV1Hash() {
+            @Override
+            public long hashValue(InputStream is) throws IOException {
+                delay();
+                return super.hashValue(is);
+            }
+
+            @Override
+            public long hashValue(FileChannel channel) throws IOException {
+                delay();
+                return super.hashValue(channel);
+            }
+        };
+        System.out.printf("%-70s %12.1f files/s%n", "Hashes with " + threads + " threads, " + LATENCY + " ms each",
+                threads * 1000.0 / LATENCY);
+        for (Map.Entry<String, Path> tree : trees.entrySet()) {
+            long files = countFiles(tree.getValue());
+            Path input = root.resolve("input.txt");
+            Files.write(input, Collections.singletonList(tree.getValue().toString()), StandardCharsets.UTF_8);
+            for (int queue : new int[]{threads, 64, 1024}) {
+                String[] args = {input.toString(), root.resolve("output.txt").toString(),
+                        "--threads", Integer.toString(threads), "--queue", Integer.toString(queue),
+                        "--store-limit", root + "=" + threads};
+                measure("RecursiveWalk " + tree.getKey() + " with slow hash --queue " + queue, files, "files",
+                        () -> new WalkImpl(args, "UTF-8", "UTF-8", slow, DirectoryHandlingMode.RECURSIVE_WALK).walk());
+            }
+        }
+    }
+
+    private static void delay() throws IOException {
+        try {
+            Thread.sleep(LATENCY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void measure(String name, double units, String unit, Task task) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+        double[] rates = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            task.run();
+            rates[i] = units / ((System.nanoTime() - start) / 1e9);
+        }
+        double mean = Arrays.stream(rates).average().orElse(0);
+        double deviation = Math.sqrt(Arrays.stream(rates).map(rate -> (rate - mean) * (rate - mean)).sum() / rates.length);
+        double divisor = "MB".equals(unit) ? 1 << 20 : 1;
+        System.out.printf("%-70s %12.1f %s/s +- %.1f%n", name, mean / divisor, unit, deviation / divisor);
+    }
+
+    /**
+     * Creates {@code dirs} directories with {@code files} random files of up to {@code maxSize} bytes each.
+     */
+    private Path tree(String name, int dirs, int files, long maxSize) throws IOException {
+        Path tree = root.resolve(name);
+        for (int i = 0; i < dirs; i++) {
+            Path dir = Files.createDirectories(tree.resolve("d" + i));
+            for (int j = 0; j < files; j++) {
+                writeRandomFile(dir.resolve("f" + j), dirs == 1 && files < 10 ? maxSize : (long) (RANDOM.nextDouble() * maxSize));
+            }
+        }
+        return tree;
+    }
+
+    private Path deepTree(int depth) throws IOException {
+        Path tree = root.resolve("deep");
+        Path dir = tree;
+        for (int i = 0; i < depth; i++) {
+            dir = Files.createDirectories(dir.resolve("d"));
+            writeRandomFile(dir.resolve("f"), 1024);
+        }
+        return tree;
+    }
+
+    private static void writeRandomFile(Path file, long size) throws IOException {
+        byte[] chunk = randomBytes((int) Math.min(size, 1 << 20));
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (long written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long countFiles(Path tree) throws IOException {
+        long[] count = new long[1];
+        Files.walkFileTree(tree, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+
+    private static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static List<HashingAlgorithm> algorithms() {
+        return Arrays.asList(new FNV1Hash(), new FNV1a64Hash(), new XXHash64(), new CRC32CHash());
+    }
+
+    private static String name(HashingAlgorithm algorithm) {
+        return algorithm.getClass().getSimpleName();
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,273 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of a walk, saved periodically so that a killed walk can be resumed.
+ * <p>
+ * A checkpoint holds the length of the output, the number of input lines completely processed,
+ * and for each directory still open, the name of its last entry written completely, so its size is bounded
+ * by the depth of the walk. For that, entries of a directory are walked sorted by {@link #ORDER},
+ * see {@link #walkFileTree}. The output is synced before each checkpoint,
+ * and the checkpoint is replaced atomically, so the output is always at least as long as the checkpoint says.
+ * When resuming, the output is truncated to that length and the walk goes on, skipping completed
+ * input lines and the entries up to the last written one in each open directory, so each line is written exactly once.
+ * The checkpoint is deleted when the walk completes.
+ */
+class WalkCheckpoint {
+    private static final int MAGIC = 0x57434b50;
+    private static final int VERSION = 2;
+    /**
+     * Order of the entries of a directory in a walk with checkpoints.
+     */
+    static final Comparator<Path> ORDER = Comparator.comparing(WalkCheckpoint::name);
+
+    private final Path file;
+    private final String inputFileName;
+    private final String outputFileName;
+    private final long intervalNanos;
+    private long nextSave;
+    private FileOutputStream stream;
+    private Writer writer;
+
+    private long line;
+    /* output length at the loaded checkpoint */
+    private long length;
+    /* directories being walked with their last written entries */
+    private final Deque<Frame> open = new ArrayDeque<>();
+    /* names of the last entries written before the walk was resumed, by their directories */
+    private final Map<Path, String> loaded = new ConcurrentHashMap<>();
+
+    WalkCheckpoint(Path file, String inputFileName, String outputFileName, int intervalSeconds) {
+        this.file = file;
+        this.inputFileName = inputFileName;
+        this.outputFileName = outputFileName;
+        intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+    }
+
+    /**
+     * Loads the saved checkpoint, if there is one matching this walk.
+     *
+     * @return whether the walk is resumed
+     */
+    boolean load() {
+        if (!Files.exists(file)) {
+            System.err.println("No checkpoint " + file + ", starting from the beginning");
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !inputFileName.equals(in.readUTF()) || !outputFileName.equals(in.readUTF())) {
+                System.err.println("Checkpoint " + file + " belongs to another walk, starting from the beginning");
+                return false;
+            }
+            line = in.readLong();
+            length = in.readLong();
+            for (int dirs = in.readInt(); dirs > 0; dirs--) {
+                Path dir = Paths.get(in.readUTF());
+                if (in.readBoolean()) {
+                    loaded.put(dir, in.readUTF());
+                }
+            }
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Checkpoint " + file + " is damaged, starting from the beginning");
+            line = 0;
+            loaded.clear();
+            return false;
+        }
+        if (!Files.isRegularFile(Paths.get(outputFileName)) || new File(outputFileName).length() < length) {
+            System.err.println("Output " + outputFileName + " is shorter than the checkpoint, starting from the beginning");
+            line = 0;
+            loaded.clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Opens the output, truncated to the checkpoint if the walk is resumed, and skips completed input lines.
+     */
+    FileOutputStream open(boolean resume, BufferedReader reader) throws IOException {
+        if (resume) {
+            try (FileChannel channel = FileChannel.open(Paths.get(outputFileName), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+            for (long i = 0; i < line; i++) {
+                if (reader.readLine() == null) {
+                    break;
+                }
+            }
+        }
+        stream = new FileOutputStream(outputFileName, resume);
+        nextSave = System.nanoTime() + intervalNanos;
+        return stream;
+    }
+
+    void attach(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * @return whether the entry has been written before the walk was resumed
+     */
+    boolean isDone(Path path) {
+        if (loaded.isEmpty()) {
+            return false;
+        }
+        String last = path.getParent() == null ? null : loaded.get(path.getParent());
+        return last != null && name(path).compareTo(last) <= 0;
+    }
+
+    void directoryStarted(Path dir) {
+        open.push(new Frame(dir, loaded.get(dir)));
+    }
+
+    void directoryDone(Path dir) {
+        open.pop();
+        done(dir);
+    }
+
+    void fileDone(Path file) {
+        done(file);
+    }
+
+    void lineDone() {
+        line++;
+        open.clear();
+        loaded.clear();
+        saveIfDue();
+    }
+
+    /**
+     * Walks the tree like {@link Files#walkFileTree(Path, FileVisitor)}, without following links,
+     * but visits the entries of each directory sorted by {@link #ORDER}.
+     * Only {@link FileVisitResult#CONTINUE} and {@link FileVisitResult#SKIP_SUBTREE} are supported.
+     */
+    static void walkFileTree(Path start, FileVisitor<Path> visitor) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            visitor.visitFileFailed(start, e);
+            return;
+        }
+        walkFileTree(start, attrs, visitor);
+    }
+
+    private static void walkFileTree(Path path, BasicFileAttributes attrs, FileVisitor<Path> visitor) throws IOException {
+        if (!attrs.isDirectory()) {
+            visitor.visitFile(path, attrs);
+            return;
+        }
+        /* as Files.walkFileTree does, the directory is opened before it is visited */
+        DirectoryStream<Path> opened;
+        try {
+            opened = Files.newDirectoryStream(path);
+        } catch (IOException e) {
+            visitor.visitFileFailed(path, e);
+            return;
+        }
+        List<Path> entries = new ArrayList<>();
+        IOException failure = null;
+        try (DirectoryStream<Path> stream = opened) {
+            if (visitor.preVisitDirectory(path, attrs) == FileVisitResult.SKIP_SUBTREE) {
+                return;
+            }
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        } catch (DirectoryIteratorException e) {
+            failure = e.getCause();
+        }
+        entries.sort(ORDER);
+        for (Path entry : entries) {
+            BasicFileAttributes entryAttrs;
+            try {
+                entryAttrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                visitor.visitFileFailed(entry, e);
+                continue;
+            }
+            walkFileTree(entry, entryAttrs, visitor);
+        }
+        visitor.postVisitDirectory(path, failure);
+    }
+
+    /**
+     * Deletes the checkpoint of the completed walk.
+     */
+    void finish() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Unable to delete checkpoint " + file);
+        }
+    }
+
+    private void done(Path path) {
+        if (!open.isEmpty()) {
+            open.peek().last = name(path);
+        }
+        saveIfDue();
+    }
+
+    private void saveIfDue() {
+        if (System.nanoTime() - nextSave < 0) {
+            return;
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            System.err.println("Unable to save checkpoint " + file + ": " + e.getMessage());
+        }
+        nextSave = System.nanoTime() + intervalNanos;
+    }
+
+    private void save() throws IOException {
+        writer.flush();
+        stream.getFD().sync();
+        long written = stream.getChannel().size();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeUTF(inputFileName);
+            data.writeUTF(outputFileName);
+            data.writeLong(line);
+            data.writeLong(written);
+            data.writeInt(open.size());
+            for (Frame frame : open) {
+                data.writeUTF(frame.dir.toString());
+                data.writeBoolean(frame.last != null);
+                if (frame.last != null) {
+                    data.writeUTF(frame.last);
+                }
+            }
+            data.flush();
+            out.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String name(Path path) {
+        Path name = path.getFileName();
+        return name == null ? "" : name.toString();
+    }
+
+    private static class Frame {
+        private final Path dir;
+        private String last;
+
+        Frame(Path dir, String last) {
+            this.dir = dir;
+            this.last = last;
+        }
+    }
+}
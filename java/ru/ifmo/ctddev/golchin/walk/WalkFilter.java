@@ -0,0 +1,90 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rules selecting the files of a walked directory, evaluated on names and attributes
+ * the traversal already has, so that rejected files are never opened and pruned directories are never listed.
+ * <p>
+ * A pattern is {@code glob:<pattern>}, {@code regex:<pattern>} or a glob without the prefix, and it matches
+ * a file or a directory if it matches either its name or its path relative to the walked directory.
+ * Excluded directories are skipped with everything inside them. Files are kept if they are not excluded,
+ * match one of the includes, if there are any, and fit the size and modification time limits.
+ * Files named in the input are never filtered.
+ */
+class WalkFilter {
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+    private FileTime modifiedAfter;
+    private FileTime modifiedBefore;
+
+    void include(String pattern) throws IllegalArgumentException {
+        includes.add(matcher(pattern));
+    }
+
+    void exclude(String pattern) throws IllegalArgumentException {
+        excludes.add(matcher(pattern));
+    }
+
+    void minSize(long size) {
+        minSize = size;
+    }
+
+    void maxSize(long size) {
+        maxSize = size;
+    }
+
+    void modifiedAfter(FileTime time) {
+        modifiedAfter = time;
+    }
+
+    void modifiedBefore(FileTime time) {
+        modifiedBefore = time;
+    }
+
+    /**
+     * @param root directory being walked, which is never pruned itself
+     * @return whether the directory has to be walked
+     */
+    boolean acceptsDirectory(Path root, Path dir) {
+        return excludes.isEmpty() || dir.equals(root) || !matches(excludes, root, dir);
+    }
+
+    /**
+     * @param attrs attributes of the file as seen by the traversal
+     * @return whether the file has to be hashed
+     */
+    boolean acceptsFile(Path root, Path file, BasicFileAttributes attrs) {
+        return attrs.size() >= minSize && attrs.size() <= maxSize
+                && (modifiedAfter == null || attrs.lastModifiedTime().compareTo(modifiedAfter) > 0)
+                && (modifiedBefore == null || attrs.lastModifiedTime().compareTo(modifiedBefore) < 0)
+                && (excludes.isEmpty() || !matches(excludes, root, file))
+                && (includes.isEmpty() || matches(includes, root, file));
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path root, Path path) {
+        Path name = path.getFileName();
+        Path relative = path.startsWith(root) ? root.relativize(path) : path;
+        for (PathMatcher matcher : matchers) {
+            if (name != null && matcher.matches(name) || matcher.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PathMatcher matcher(String pattern) throws IllegalArgumentException {
+        if (!pattern.startsWith("glob:") && !pattern.startsWith("regex:")) {
+            pattern = "glob:" + pattern;
+        }
+        return FileSystems.getDefault().getPathMatcher(pattern);
+    }
+}
@@ -1,8 +1,24 @@
 package ru.ifmo.ctddev.golchin.crawler;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Created by Roman on 09/02/2017.
@@ -11,11 +27,32 @@ import java.nio.file.attribute.BasicFileAttributes;
 class WalkImpl {
     private DirectoryHandlingMode mode;
     private HashingAlgorithm hashingAlgorithm;
+    private String errorHash;
+    private int bits;
+    /* stands for errorHash where hashes are passed as numbers, a 64-bit hash of zero is printed as errorHash anyway */
+    private long errorValue;
     private String inputFileName;
     private String outputFileName;
     private String inputCharset;
     private String outputCharset;
+    private WalkOptions options;
+    private ForkJoinPool pool;
+    private ParallelWalker parallelWalker;
+    private TreeHasher treeHasher;
+    private ContentChunker chunker;
+    private ChunkWriter chunkWriter;
+    private AsyncHashEngine asyncEngine;
+    /* hashes by file keys, shared by all paths of the same file */
+    private ConcurrentMap<Object, CompletableFuture<Long>> hashesByKey;
+    private HashIndex index;
+    private WalkWatcher watcher;
+    private WalkCheckpoint checkpoint;
+    private StoreLimits storeLimits;
+    private Throttle throttle;
+    private boolean resume;
+    private WalkStats stats = new WalkStats();
     private static final String IO_ERROR = "an I/O error occurred while processing the file: ";
+    private static final String[] ARCHIVE_EXTENSIONS = {".zip", ".jar", ".war", ".ear"};
 
 
     public WalkImpl(String[] args, String inputCharset, String outputCharset,
@@ -29,37 +66,256 @@ class WalkImpl {
         this.outputCharset = outputCharset;
         this.hashingAlgorithm = hashingAlgorithm;
         mode = directoryHandlingMode;
+        options = new WalkOptions(args, 2);
+        if (options.hashingAlgorithm != null) {
+            this.hashingAlgorithm = options.hashingAlgorithm;
+        }
+        errorHash = this.hashingAlgorithm.errorHash();
+        bits = this.hashingAlgorithm.newHasher().bits();
+        errorValue = bits < Long.SIZE ? -1L : 0;
+        if (options.watchMillis > 0 && mode == DirectoryHandlingMode.DUPLICATES) {
+            throw new IllegalArgumentException("--watch is not supported when looking for duplicates");
+        }
+        if (options.checkpointFile != null && mode == DirectoryHandlingMode.DUPLICATES) {
+            throw new IllegalArgumentException("--checkpoint is not supported when looking for duplicates");
+        }
+        if (options.cdcAverageSize > 0 && options.treeChunkSize > 0) {
+            throw new IllegalArgumentException("--cdc and --tree-chunk cannot be used together");
+        }
+        if (options.cdcAverageSize > 0 && options.chunkFile == null) {
+            throw new IllegalArgumentException("--cdc requires --chunk-output");
+        }
+        if (options.resume && options.checkpointFile == null) {
+            throw new IllegalArgumentException("--resume requires --checkpoint");
+        }
+        if (options.threads > 1 || options.hashers > 0 || options.asyncReads > 0) {
+            storeLimits = new StoreLimits(options.storeLimits);
+        } else if (!options.storeLimits.isEmpty()) {
+            /* files are read one by one, so no store could take more reads than any limit */
+            throw new IllegalArgumentException("--store-limit requires --threads, --hashers or --async");
+        }
     }
 
-    private void write(Writer writer, String message) {
+    void write(Writer writer, String message) {
+        long start = System.nanoTime();
         try {
-            writer.write(message + "\n");
+            writer.write(message);
+            writer.write('\n');
         } catch (IOException e) {
+            stats.error(e);
             System.err.println(IO_ERROR + " " + outputFileName);
         }
+        stats.written(System.nanoTime() - start);
+    }
+
+    void write(Writer writer, String fileHash, Object file) {
+        long start = System.nanoTime();
+        try {
+            writer.write(fileHash);
+            writer.write(' ');
+            writer.write(file.toString());
+            writer.write('\n');
+        } catch (IOException e) {
+            stats.error(e);
+            System.err.println(IO_ERROR + " " + outputFileName);
+        }
+        stats.written(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes a {@code <hash> <file>} line, formatting the hash right into the buffer of {@link OutputEncoder}.
+     */
+    void write(Writer writer, long fileHash, Object file) {
+        long start = System.nanoTime();
+        try {
+            if (fileHash != errorValue && writer instanceof OutputEncoder) {
+                ((OutputEncoder) writer).writeHex(fileHash, bits);
+            } else {
+                writer.write(hex(fileHash));
+            }
+            writer.write(' ');
+            writer.write(file.toString());
+            writer.write('\n');
+        } catch (IOException e) {
+            stats.error(e);
+            System.err.println(IO_ERROR + " " + outputFileName);
+        }
+        stats.written(System.nanoTime() - start);
+    }
+
+    /**
+     * @return hash in the form it is written in
+     */
+    String hex(long fileHash) {
+        return fileHash == errorValue ? errorHash : AbstractHashingAlgorithm.toHex(fileHash, bits);
+    }
+
+    WalkStats stats() {
+        return stats;
+    }
+
+    /**
+     * @return limits of reading files or {@code null} if reads are not limited
+     */
+    Throttle throttle() {
+        return throttle;
+    }
+
+    /**
+     * @return numeric hash reported for files that could not be read
+     */
+    long errorValue() {
+        return errorValue;
     }
 
     void walk() {
+        stats = new WalkStats();
+        if (options.jmx) {
+            stats.register();
+        }
+        ScheduledExecutorService reporter = null;
+        if (options.statsInterval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "walk-stats");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(() -> System.err.println(stats.summary()),
+                    options.statsInterval, options.statsInterval, TimeUnit.SECONDS);
+        }
+        if (options.readRate > 0 || options.openRate > 0 || options.throttleControlFile != null || options.jmx) {
+            Path controlFile = null;
+            if (options.throttleControlFile != null) {
+                try {
+                    controlFile = Paths.get(options.throttleControlFile);
+                } catch (InvalidPathException e) {
+                    System.err.println("Invalid throttle control file " + options.throttleControlFile);
+                }
+            }
+            throttle = new Throttle(options.readRate, options.openRate, controlFile);
+            if (options.jmx) {
+                throttle.register();
+            }
+        }
+        if (options.threads > 1) {
+            pool = new ForkJoinPool(options.threads);
+        }
+        if (options.inodeCache || options.inodeCacheAll) {
+            hashesByKey = new ConcurrentHashMap<>();
+        }
+        if (mode == DirectoryHandlingMode.RECURSIVE_WALK && pool != null) {
+            parallelWalker = new ParallelWalker(this, pool, options.filter, options.queueSize);
+        }
+        String algorithmName = hashingAlgorithm.getClass().getName();
+        if (options.chunkFile != null && (options.treeChunkSize > 0 || options.cdcAverageSize > 0)) {
+            try {
+                chunkWriter = new ChunkWriter(options.chunkFile, outputCharset);
+            } catch (IOException e) {
+                System.err.println("Unable to create chunk output file " + options.chunkFile);
+            }
+        }
+        if (options.treeChunkSize > 0) {
+            /* chunks of a file are hashed in parallel even if files are hashed one by one */
+            treeHasher = new TreeHasher(hashingAlgorithm, options.treeChunkSize,
+                    pool != null ? pool : ForkJoinPool.commonPool(), chunkWriter, throttle);
+            algorithmName += "/tree:" + options.treeChunkSize;
+        }
+        if (options.cdcAverageSize > 0 && chunkWriter != null) {
+            chunker = new ContentChunker(hashingAlgorithm, options.cdcAverageSize, chunkWriter, throttle);
+        }
+        if (options.asyncReads > 0 && treeHasher == null && chunker == null) {
+            asyncEngine = new AsyncHashEngine(hashingAlgorithm, options.asyncReads, stats, storeLimits, throttle);
+        }
+        if (options.indexFile != null && chunkWriter != null) {
+            /* a file taken from the index is not read, so its chunks would be missing from the chunk output */
+            System.err.println("Index " + options.indexFile + " is not used with --chunk-output");
+        } else if (options.indexFile != null) {
+            try {
+                index = new HashIndex(Paths.get(options.indexFile), algorithmName);
+            } catch (IOException | InvalidPathException e) {
+                System.err.println("Unable to open index " + options.indexFile + ", hashing all files");
+            }
+        }
+        if (options.checkpointFile != null) {
+            try {
+                checkpoint = new WalkCheckpoint(Paths.get(options.checkpointFile), inputFileName, outputFileName,
+                        options.checkpointInterval);
+                resume = options.resume && checkpoint.load();
+            } catch (InvalidPathException e) {
+                System.err.println("Invalid checkpoint file " + options.checkpointFile);
+            }
+        }
+        if (options.watchMillis > 0) {
+            try {
+                watcher = new WalkWatcher(this, options.filter, options.watchMillis);
+            } catch (IOException e) {
+                System.err.println("Unable to watch files for changes");
+            }
+        }
+        try {
+            walkInput();
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (asyncEngine != null) {
+                asyncEngine.close();
+            }
+            close(index, options.indexFile);
+            close(chunkWriter, options.chunkFile);
+            close(watcher, "watch service");
+            close(throttle, "throttle");
+            if (reporter != null) {
+                reporter.shutdownNow();
+                System.err.println(stats.summary());
+            }
+            stats.unregister();
+        }
+    }
+
+    private static void close(Closeable closeable, String fileName) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close " + fileName);
+            }
+        }
+    }
+
+    private void walkInput() {
         try (Reader in = new InputStreamReader(new FileInputStream(inputFileName), inputCharset)) {
-            try (Writer writer = new BufferedWriter(
-                    new OutputStreamWriter(new FileOutputStream(outputFileName), outputCharset))) {
-                BufferedReader reader = new BufferedReader(in);
-                String filePath;
-                while ((filePath = reader.readLine()) != null) {
-                    try {
-                        Path path = new File(filePath).toPath();
-                        handlePath(path, writer);
-                    } catch (FileNotFoundException e) {
-                        System.err.println("Unable to find path to calculate hash of: " + filePath);
-                        writer.write(FNV1Hash.ERROR_HASH + " " + filePath + "\n");
+            BufferedReader reader = new BufferedReader(in);
+            try (Writer writer = new OutputEncoder(openOutput(reader), outputCharset)) {
+                if (checkpoint != null) {
+                    checkpoint.attach(writer);
+                }
+                if (mode == DirectoryHandlingMode.DUPLICATES) {
+                    new DuplicateFinder(this, hashingAlgorithm, options.filter).run(reader, writer);
+                } else if (asyncEngine != null) {
+                    new WalkPipeline(this, 0, options.queueSize).run(reader, writer);
+                } else if (options.hashers > 0) {
+                    new WalkPipeline(this, options.hashers, options.queueSize).run(reader, writer);
+                } else {
+                    String filePath;
+                    while ((filePath = reader.readLine()) != null) {
+                        handleInputLine(filePath, writer);
+                        lineDone();
                     }
                 }
+                if (checkpoint != null) {
+                    checkpoint.finish();
+                }
+                if (watcher != null) {
+                    watcher.run(writer);
+                }
             } catch (FileNotFoundException e) {
                 System.err.println("Unable to find / create output file " + outputFileName);
             } catch (IOException e) {
                 /* Failed to close output file */
                 System.err.println("Failed to close output file");
             } catch (InvalidPathException e) {
+                stats.error(e);
                 System.err.println("invalid path");
             }
         } catch (FileNotFoundException e) {
@@ -69,23 +325,463 @@ class WalkImpl {
             /* Failed to close input file or failed to set charset */
         }
     }
+    /**
+     * Opens the output, where a resumed walk goes on from its checkpoint.
+     */
+    private FileOutputStream openOutput(BufferedReader reader) throws IOException {
+        return checkpoint == null ? new FileOutputStream(outputFileName) : checkpoint.open(resume, reader);
+    }
+
+    void handleInputLine(String filePath, Writer writer) throws IOException {
+        try {
+            Path path = new File(filePath).toPath();
+            handlePath(path, writer);
+        } catch (FileNotFoundException e) {
+            stats.error(e);
+            System.err.println("Unable to find path to calculate hash of: " + filePath);
+            write(writer, errorHash, filePath);
+        }
+    }
+
+    /**
+     * Resolves a line of the input naming a regular file, leaving everything else to {@link #handleInputLine}.
+     *
+     * @return file to pass to {@link #hashInputFile} or {@code null} if the input line has to be passed to {@link #handleInputLine}
+     */
+    Path inputFile(String filePath) {
+        try {
+            Path path = new File(filePath).toPath();
+            if (Files.isDirectory(path) || isArchive(path)) {
+                return null;
+            }
+            watchFile(path);
+            return path;
+        } catch (InvalidPathException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes a file returned by {@link #inputFile}.
+     */
+    long hashInputFile(Path path) throws FileNotFoundException {
+        long fileHash = hash(path);
+        hashed(path, fileHash);
+        return fileHash;
+    }
+
+    /**
+     * Reports a file returned by {@link #inputFile} that could not be opened.
+     */
+    void inputFileFailed(String filePath, Throwable e, Writer writer) {
+        stats.error(unwrap(e));
+        System.err.println("Unable to find path to calculate hash of: " + filePath);
+        write(writer, errorHash, filePath);
+    }
+
+    boolean isAsync() {
+        return asyncEngine != null;
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #hashInputFile}, available if {@link #isAsync()}.
+     */
+    CompletableFuture<Long> hashInputFileAsync(Path path) throws InterruptedException {
+        return hashAsync(path, null).thenApply(fileHash -> {
+            hashed(path, fileHash);
+            return fileHash;
+        });
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #hash(Path, BasicFileAttributes)}, available if {@link #isAsync()}.
+     *
+     * @return future hash of the file, failed with {@link UncheckedIOException} wrapping
+     * {@link FileNotFoundException} if the file cannot be opened
+     */
+    CompletableFuture<Long> hashAsync(final Path filePath, final BasicFileAttributes attrs) throws InterruptedException {
+        return hashAsyncChecked(filePath, attrs).handle((fileHash, e) -> {
+            if (e == null) {
+                return fileHash;
+            }
+            Throwable cause = unwrap(e);
+            if (cause instanceof FileNotFoundException) {
+                throw new UncheckedIOException((FileNotFoundException) cause);
+            }
+            if (!(cause instanceof IOException)) {
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
+            stats.error(cause);
+            System.err.println(IO_ERROR + filePath);
+            return errorValue;
+        });
+    }
+
+    /**
+     * Same as {@link #hashAsync}, but fails if the file could not be read.
+     */
+    private CompletableFuture<Long> hashAsyncChecked(final Path filePath, final BasicFileAttributes attrs) throws InterruptedException {
+        Object key = hashesByKey == null ? null : aliasKey(filePath, attrs);
+        if (key == null) {
+            return hashAsyncIndexed(filePath, attrs);
+        }
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        CompletableFuture<Long> existing = hashesByKey.putIfAbsent(key, result);
+        if (existing != null) {
+            return existing.handle((fileHash, e) -> {
+                if (e == null) {
+                    return CompletableFuture.completedFuture(fileHash);
+                }
+                /* the alias could not be hashed, let this path report its own error */
+                try {
+                    return hashAsyncIndexed(filePath, attrs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+            }).thenCompose(future -> future);
+        }
+        hashAsyncIndexed(filePath, attrs).whenComplete((fileHash, e) -> {
+            if (e == null) {
+                result.complete(fileHash);
+            } else {
+                hashesByKey.remove(key, result);
+                result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return future hash, failed if the file could not be opened or read
+     */
+    private CompletableFuture<Long> hashAsyncIndexed(final Path filePath, final BasicFileAttributes traversed) throws InterruptedException {
+        BasicFileAttributes attrs = index == null ? null : indexedAttributes(filePath, traversed);
+        Long cached = attrs == null ? null : index.get(filePath, attrs);
+        if (cached != null) {
+            stats.fileFromIndex();
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (Files.isDirectory(filePath)) {
+            CompletableFuture<Long> result = new CompletableFuture<>();
+            result.completeExceptionally(new UncheckedIOException(new FileNotFoundException(filePath + " (Is a directory)")));
+            return result;
+        }
+        return asyncEngine.hash(filePath).thenApply(fileHash -> {
+            putIndex(filePath, attrs, fileHash);
+            return fileHash;
+        });
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    /**
+     * Runs the task on the executor once the store of the file allows another read,
+     * for a task that hashes the file.
+     */
+    <T> CompletableFuture<T> supplyAsync(Path file, Supplier<T> task, Executor executor) {
+        return storeLimits == null
+                ? CompletableFuture.supplyAsync(task, executor) : storeLimits.supplyAsync(file, task, executor);
+    }
+
     /**
      * @param filePath syntactically valid file path
+     * @return hash of the file or {@link #errorValue()} if it could not be read
      * @throws FileNotFoundException
      */
-    private void hash(final Path filePath, final Writer writer) throws FileNotFoundException {
-        try (FileInputStream stream = new FileInputStream(filePath.toFile())) {
-            String fileHash = FNV1Hash.ERROR_HASH;
+    long hash(final Path filePath) throws FileNotFoundException {
+        return hash(filePath, null);
+    }
+
+    /**
+     * Same as {@link #hash(Path)} for a file which attributes have been read already.
+     *
+     * @param attrs attributes read by the traversal or {@code null} if they have to be read
+     */
+    long hash(final Path filePath, final BasicFileAttributes attrs) throws FileNotFoundException {
+        try {
+            return hashChecked(filePath, attrs);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            stats.error(e);
+            System.err.println(IO_ERROR + filePath);
+            return errorValue;
+        }
+    }
+
+    /**
+     * Same as {@link #hash(Path, BasicFileAttributes)}, but fails if the file could not be read.
+     */
+    long hashChecked(final Path filePath, final BasicFileAttributes attrs) throws IOException {
+        Object key = hashesByKey == null ? null : aliasKey(filePath, attrs);
+        if (key == null) {
+            return hashIndexed(filePath, attrs);
+        }
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        CompletableFuture<Long> existing = hashesByKey.putIfAbsent(key, result);
+        if (existing != null) {
             try {
-                fileHash = hashingAlgorithm.hash(stream);
-            } catch (IOException e) {
-                System.err.println(IO_ERROR + filePath);
+                return existing.join();
+            } catch (CompletionException e) {
+                /* the alias could not be hashed, let this path report its own error */
+                return hashIndexed(filePath, attrs);
             }
-            write(writer, fileHash + " " + filePath);
-        } catch (FileNotFoundException e) {
+        }
+        try {
+            long fileHash = hashIndexed(filePath, attrs);
+            result.complete(fileHash);
+            return fileHash;
+        } catch (IOException | RuntimeException e) {
+            hashesByKey.remove(key, result);
+            result.completeExceptionally(e);
             throw e;
+        }
+    }
+
+    /**
+     * Only files that may be reached by other paths are shared: hard links, or any file with {@code --inode-cache-all},
+     * which is meant for overlapping inputs and bind mounts.
+     *
+     * @param attrs attributes read by the traversal or {@code null} if they have to be read
+     * @return key identifying the file regardless of the path, or {@code null} if the hash is not to be shared
+     */
+    private Object aliasKey(final Path filePath, BasicFileAttributes attrs) {
+        try {
+            if (attrs == null || attrs.isSymbolicLink()) {
+                attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+            }
+            Object key = attrs.fileKey();
+            if (key == null || options.inodeCacheAll) {
+                return key;
+            }
+            Object links = Files.getAttribute(filePath, "unix:nlink");
+            return links instanceof Integer && (Integer) links > 1 ? key : null;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            /* link counts are not available, so any file might be a link */
+            return attrs.fileKey();
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private long hashIndexed(final Path filePath, final BasicFileAttributes traversed) throws IOException {
+        BasicFileAttributes attrs = index == null ? null : indexedAttributes(filePath, traversed);
+        Long cached = attrs == null ? null : index.get(filePath, attrs);
+        if (cached != null) {
+            stats.fileFromIndex();
+            return cached;
+        }
+        long fileHash = hashFile(filePath);
+        putIndex(filePath, attrs, fileHash);
+        return fileHash;
+    }
+
+    private void putIndex(final Path filePath, final BasicFileAttributes attrs, final long fileHash) {
+        if (attrs != null) {
+            try {
+                index.put(filePath, attrs, fileHash);
+            } catch (IOException e) {
+                System.err.println("Unable to update index " + options.indexFile);
+            }
+        }
+    }
+
+    private long hashFile(final Path filePath) throws IOException {
+        if (throttle != null) {
+            throttle.open();
+        }
+        AsyncSemaphore permits = null;
+        if (storeLimits != null) {
+            try {
+                permits = storeLimits.acquire(filePath);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting to read " + filePath);
+            }
+        }
+        long start = System.nanoTime();
+        try (FileInputStream stream = new FileInputStream(filePath.toFile())) {
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            long fileHash;
+            if (treeHasher != null) {
+                fileHash = treeHasher.hash(filePath, channel);
+            } else if (chunker != null) {
+                fileHash = chunker.hash(filePath, channel);
+            } else if (throttle != null && throttle.limitsReads()) {
+                fileHash = hashingAlgorithm.hashValue(throttle.limit(stream));
+            } else {
+                fileHash = size >= options.mappingThreshold
+                        ? hashingAlgorithm.hashValue(channel)
+                        : hashingAlgorithm.hashValue(stream);
+            }
+            stats.fileHashed(size, System.nanoTime() - start);
+            return fileHash;
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Attributes are read before hashing, so a file modified meanwhile does not match its index entry next time.
+     * Those read by the traversal are taken as they are, unless they are of a symbolic link.
+     *
+     * @param traversed attributes read by the traversal or {@code null}
+     * @return attributes of the file or {@code null} if it is not accessible
+     */
+    private BasicFileAttributes indexedAttributes(final Path filePath, final BasicFileAttributes traversed) {
+        if (traversed != null && !traversed.isSymbolicLink()) {
+            return traversed;
+        }
+        try {
+            return Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void hash(final Path filePath, final BasicFileAttributes attrs, final Writer writer) throws FileNotFoundException {
+        long fileHash = hash(filePath, attrs);
+        hashed(filePath, fileHash);
+        write(writer, fileHash, filePath);
+        if (isArchive(filePath)) {
+            for (String line : hashArchive(filePath)) {
+                write(writer, line);
+            }
+        }
+    }
+
+    /**
+     * @return whether the entries of the file have to be hashed too, which is the case for archives with {@code --archives}
+     */
+    boolean isArchive(final Path filePath) {
+        Path name = filePath.getFileName();
+        if (!options.archives || name == null) {
+            return false;
+        }
+        String lowerCase = name.toString().toLowerCase(Locale.ROOT);
+        for (String extension : ARCHIVE_EXTENSIONS) {
+            if (lowerCase.endsWith(extension)) {
+                return Files.isRegularFile(filePath);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hashes the entries of an archive, streaming them from the zip file system without extracting anything.
+     * Archives inside the archive are hashed as plain entries, as the zip file system opens them only by extracting.
+     *
+     * @return lines for the entries, which are named {@code <archive>!<entry>}
+     */
+    List<String> hashArchive(final Path archive) {
+        List<String> lines = new ArrayList<>();
+        try (FileSystem zip = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            for (Path root : zip.getRootDirectories()) {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+                        lines.add(hashEntry(entry, attrs) + " " + archive + "!" + entry);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        } catch (IOException | ProviderNotFoundException e) {
+            stats.error(e);
+            System.err.println("Unable to read archive " + archive);
+        }
+        return lines;
+    }
+
+    private String hashEntry(final Path entry, final BasicFileAttributes attrs) {
+        long start = System.nanoTime();
+        try (InputStream stream = Files.newInputStream(entry)) {
+            String entryHash = hashingAlgorithm.hash(throttle == null ? stream : throttle.limit(stream));
+            stats.fileHashed(attrs.size(), System.nanoTime() - start);
+            return entryHash;
         } catch (IOException e) {
-            System.err.println("Failed to close file");
+            stats.error(e);
+            System.err.println(IO_ERROR + entry);
+            return errorHash;
+        }
+    }
+
+    /**
+     * Starts watching a directory for changes if {@code --watch} is set; must be called before the directory is listed.
+     */
+    void watchDirectory(Path dir, Path root) {
+        if (watcher != null) {
+            watcher.watchDirectory(dir, root);
+        }
+    }
+
+    private void watchFile(Path file) {
+        if (watcher != null) {
+            watcher.watchFile(file);
+        }
+    }
+
+    void hashed(Path file, long fileHash) {
+        if (watcher != null) {
+            watcher.hashed(file, fileHash);
+        }
+    }
+
+    /**
+     * @return whether the file or the directory has been written before the walk was resumed
+     */
+    boolean isDone(Path path) {
+        return checkpoint != null && checkpoint.isDone(path);
+    }
+
+    /**
+     * @return order in which entries of a directory are to be walked, or {@code null} for the directory order
+     */
+    Comparator<Path> entryOrder() {
+        return checkpoint == null ? null : WalkCheckpoint.ORDER;
+    }
+
+    void directoryStarted(Path dir) {
+        if (checkpoint != null) {
+            checkpoint.directoryStarted(dir);
+        }
+    }
+
+    void directoryDone(Path dir) {
+        if (checkpoint != null) {
+            checkpoint.directoryDone(dir);
+        }
+    }
+
+    void fileDone(Path file) {
+        if (checkpoint != null) {
+            checkpoint.fileDone(file);
+        }
+    }
+
+    /**
+     * Must be called once the output of an input line has been written completely.
+     */
+    void lineDone() {
+        if (checkpoint != null) {
+            checkpoint.lineDone();
+        }
+    }
+
+    /**
+     * Drops hashes shared by paths to the same file, as the file may have changed since they were computed.
+     */
+    void forgetHashes() {
+        if (hashesByKey != null) {
+            hashesByKey.clear();
         }
     }
 
@@ -93,21 +789,64 @@ class WalkImpl {
         switch (mode) {
             case ERROR: {
                 System.err.println("Passed directory instead of file: " + dir.toString());
-                write(writer, FNV1Hash.ERROR_HASH + " " + dir);
+                write(writer, errorHash, dir);
                 break;
             }
             case RECURSIVE_WALK: {
-
+                final Path root = dir;
                 try {
-                    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
-                        @Override
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                            hash(file, writer);
-                            return FileVisitResult.CONTINUE;
+                    if (parallelWalker != null) {
+                        parallelWalker.walk(dir, writer);
+                    } else {
+                        FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+                            /* time outside of the callbacks is spent on reading directories */
+                            private long last = System.nanoTime();
+
+                            @Override
+                            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                                traversed();
+                                if (!options.filter.acceptsDirectory(root, dir) || isDone(dir)) {
+                                    return FileVisitResult.SKIP_SUBTREE;
+                                }
+                                watchDirectory(dir, root);
+                                directoryStarted(dir);
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                                traversed();
+                                if (options.filter.acceptsFile(root, file, attrs) && !isDone(file)) {
+                                    hash(file, attrs, writer);
+                                    fileDone(file);
+                                    last = System.nanoTime();
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                                traversed();
+                                super.postVisitDirectory(dir, e);
+                                directoryDone(dir);
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            private void traversed() {
+                                long now = System.nanoTime();
+                                stats.traversed(now - last);
+                                last = now;
+                            }
+                        };
+                        if (checkpoint != null) {
+                            WalkCheckpoint.walkFileTree(dir, visitor);
+                        } else {
+                            Files.walkFileTree(dir, visitor);
                         }
-                    });
+                    }
                 } catch (IOException e) {
-                    write(writer, FNV1Hash.ERROR_HASH + " " + dir);
+                    stats.error(e);
+                    write(writer, errorHash, dir);
                     System.err.println("an I/O error occurred while walking directory: " + dir);
                 }
             }
@@ -118,9 +857,12 @@ class WalkImpl {
         try {
             if (Files.isDirectory(path)) {
                 handleDirectory(path, writer);
-            } else
-                hash(path, writer);
+            } else {
+                watchFile(path);
+                hash(path, null, writer);
+            }
         } catch (SecurityException e) {
+            stats.error(e);
             System.err.println("You don't have permission to read this file/directory: " + path);
         }
     }
@@ -0,0 +1,237 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Optional command line switches of {@link Walk} and {@link RecursiveWalk},
+ * passed after the input and output file names.
+ */
+class WalkOptions {
+    private static final long MAX_CHUNK_SIZE = 1 << 30;
+    private static final int MIN_CDC_SIZE = 1 << 6;
+    private static final int MAX_CDC_SIZE = 1 << 26;
+
+    int threads = 1;
+    long mappingThreshold = 4 << 20;
+    String indexFile;
+    HashingAlgorithm hashingAlgorithm;
+    long treeChunkSize;
+    String chunkFile;
+    int cdcAverageSize;
+    int hashers;
+    int queueSize = 1024;
+    int asyncReads;
+    boolean inodeCache;
+    boolean inodeCacheAll;
+    boolean jmx;
+    int statsInterval;
+    int watchMillis;
+    WalkFilter filter = new WalkFilter();
+    String checkpointFile;
+    int checkpointInterval = 10;
+    boolean resume;
+    boolean archives;
+    Map<String, Integer> storeLimits = new LinkedHashMap<>();
+    long readRate;
+    long openRate;
+    String throttleControlFile;
+
+    WalkOptions(String[] args, int from) throws IllegalArgumentException {
+        for (int i = from; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": {
+                    threads = positive(args, ++i);
+                    break;
+                }
+                case "--mmap-threshold": {
+                    mappingThreshold = positiveLong(args, ++i);
+                    break;
+                }
+                case "--index": {
+                    indexFile = value(args, ++i);
+                    break;
+                }
+                case "--algorithm": {
+                    hashingAlgorithm = hashingAlgorithm(value(args, ++i));
+                    break;
+                }
+                case "--tree-chunk": {
+                    treeChunkSize = positiveLong(args, ++i);
+                    if (treeChunkSize > MAX_CHUNK_SIZE) {
+                        throw new IllegalArgumentException("chunk size should not exceed " + MAX_CHUNK_SIZE);
+                    }
+                    break;
+                }
+                case "--cdc": {
+                    cdcAverageSize = positive(args, ++i);
+                    if (Integer.bitCount(cdcAverageSize) != 1 || cdcAverageSize < MIN_CDC_SIZE || cdcAverageSize > MAX_CDC_SIZE) {
+                        throw new IllegalArgumentException("average chunk size should be a power of two from "
+                                + MIN_CDC_SIZE + " to " + MAX_CDC_SIZE);
+                    }
+                    break;
+                }
+                case "--chunk-output": {
+                    chunkFile = value(args, ++i);
+                    break;
+                }
+                case "--hashers": {
+                    hashers = positive(args, ++i);
+                    break;
+                }
+                case "--queue": {
+                    queueSize = positive(args, ++i);
+                    break;
+                }
+                case "--async": {
+                    asyncReads = positive(args, ++i);
+                    break;
+                }
+                case "--inode-cache": {
+                    inodeCache = true;
+                    break;
+                }
+                case "--inode-cache-all": {
+                    inodeCacheAll = true;
+                    break;
+                }
+                case "--jmx": {
+                    jmx = true;
+                    break;
+                }
+                case "--stats-interval": {
+                    statsInterval = positive(args, ++i);
+                    break;
+                }
+                case "--watch": {
+                    watchMillis = positive(args, ++i);
+                    break;
+                }
+                case "--checkpoint": {
+                    checkpointFile = value(args, ++i);
+                    break;
+                }
+                case "--checkpoint-interval": {
+                    checkpointInterval = positive(args, ++i);
+                    break;
+                }
+                case "--resume": {
+                    resume = true;
+                    break;
+                }
+                case "--store-limit": {
+                    storeLimit(value(args, ++i));
+                    break;
+                }
+                case "--read-rate": {
+                    readRate = positiveLong(args, ++i);
+                    break;
+                }
+                case "--open-rate": {
+                    openRate = positiveLong(args, ++i);
+                    break;
+                }
+                case "--throttle-control": {
+                    throttleControlFile = value(args, ++i);
+                    break;
+                }
+                case "--archives": {
+                    archives = true;
+                    break;
+                }
+                case "--include": {
+                    filter.include(value(args, ++i));
+                    break;
+                }
+                case "--exclude": {
+                    filter.exclude(value(args, ++i));
+                    break;
+                }
+                case "--min-size": {
+                    filter.minSize(positiveLong(args, ++i));
+                    break;
+                }
+                case "--max-size": {
+                    filter.maxSize(positiveLong(args, ++i));
+                    break;
+                }
+                case "--modified-after": {
+                    filter.modifiedAfter(time(args, ++i));
+                    break;
+                }
+                case "--modified-before": {
+                    filter.modifiedBefore(time(args, ++i));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+    }
+
+    private static HashingAlgorithm hashingAlgorithm(String name) throws IllegalArgumentException {
+        switch (name) {
+            case "fnv1":
+                return new FNV1Hash();
+            case "fnv1a64":
+                return new FNV1a64Hash();
+            case "xxhash64":
+                return new XXHash64();
+            case "crc32c":
+                return new CRC32CHash();
+            default:
+                throw new IllegalArgumentException("unknown hashing algorithm " + name
+                        + ", expected one of fnv1, fnv1a64, xxhash64, crc32c");
+        }
+    }
+
+    private static String value(String[] args, int i) throws IllegalArgumentException {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("expected value after " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static long positiveLong(String[] args, int i) throws IllegalArgumentException {
+        try {
+            long value = Long.parseLong(value(args, i));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("expected positive number after " + args[i - 1]);
+    }
+
+    private void storeLimit(String value) throws IllegalArgumentException {
+        int separator = value.lastIndexOf('=');
+        try {
+            int limit = Integer.parseInt(value.substring(separator + 1));
+            if (separator > 0 && limit > 0) {
+                storeLimits.put(value.substring(0, separator), limit);
+                return;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("expected MOUNT=LIMIT after --store-limit, got " + value);
+    }
+
+    private static FileTime time(String[] args, int i) throws IllegalArgumentException {
+        try {
+            return FileTime.from(Instant.parse(value(args, i)));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("expected time like 2017-02-09T00:00:00Z after " + args[i - 1]);
+        }
+    }
+
+    private static int positive(String[] args, int i) throws IllegalArgumentException {
+        long value = positiveLong(args, i);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("value is too large: " + args[i]);
+        }
+        return (int) value;
+    }
+}
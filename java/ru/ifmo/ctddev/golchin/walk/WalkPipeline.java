@@ -0,0 +1,172 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Processes the input file in three stages: a reader thread, a pool of hashing threads,
+ * and the calling thread writing results in the input order.
+ * <p>
+ * Both queues are bounded, so at most {@code capacity} input lines are held in memory
+ * however long the input is: the reader waits for the writer, and a slow file only delays
+ * writing while other lines keep being hashed.
+ * Directories are walked by the writer, which walks them in parallel when {@code --threads} is set.
+ * <p>
+ * With {@code --async}, files are hashed by {@link AsyncHashEngine} right from the reader thread
+ * and no hashing threads are started.
+ * <p>
+ * If the reader fails, the lines read so far are written and the failure is rethrown by {@link #run}.
+ */
+class WalkPipeline {
+    private static final Item END = new Item(null);
+
+    private final WalkImpl walk;
+    private final int hashers;
+    private final BlockingQueue<Item> toHash;
+    private final BlockingQueue<Item> toWrite;
+    private volatile Throwable failure;
+
+    WalkPipeline(WalkImpl walk, int hashers, int capacity) {
+        this.walk = walk;
+        this.hashers = hashers;
+        toHash = new ArrayBlockingQueue<>(capacity);
+        toWrite = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void run(BufferedReader reader, Writer writer) throws IOException {
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> read(reader), "walk-reader"));
+        for (int i = 0; i < hashers; i++) {
+            threads.add(new Thread(this::hash, "walk-hasher-" + i));
+        }
+        threads.forEach(Thread::start);
+        try {
+            write(writer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            threads.forEach(Thread::interrupt);
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void read(BufferedReader reader) {
+        try {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Item item = new Item(line);
+                    toWrite.put(item);
+                    if (walk.isAsync()) {
+                        item.path = walk.inputFile(line);
+                        if (item.path == null) {
+                            item.done.complete(null);
+                            continue;
+                        }
+                        walk.hashInputFileAsync(item.path).whenComplete((hash, e) -> {
+                            if (e == null) {
+                                item.hash = hash;
+                            } else {
+                                item.failure = e;
+                            }
+                            item.done.complete(null);
+                        });
+                    } else {
+                        toHash.put(item);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("an I/O error occurred while reading input file");
+            } catch (RuntimeException | Error e) {
+                /* reported by the writer once it has written the lines read so far */
+                failure = e;
+            }
+            /* not in a finally: once interrupted, nobody takes from the queues anymore */
+            toWrite.put(END);
+            for (int i = 0; i < hashers; i++) {
+                toHash.put(END);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void hash() {
+        try {
+            Item item;
+            while ((item = toHash.take()) != END) {
+                try {
+                    item.path = walk.inputFile(item.line);
+                    if (item.path != null) {
+                        item.hash = walk.hashInputFile(item.path);
+                    }
+                    item.done.complete(null);
+                } catch (FileNotFoundException e) {
+                    item.failure = e;
+                    item.done.complete(null);
+                } catch (RuntimeException e) {
+                    item.done.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void write(Writer writer) throws IOException, InterruptedException {
+        Item item;
+        while ((item = toWrite.take()) != END) {
+            boolean hashed;
+            try {
+                item.done.join();
+                hashed = item.path != null;
+            } catch (CompletionException e) {
+                System.err.println("Failed to hash " + item.line + ": " + e.getCause());
+                hashed = false;
+            }
+            if (!hashed) {
+                walk.handleInputLine(item.line, writer);
+            } else if (item.failure != null) {
+                walk.inputFileFailed(item.line, item.failure, writer);
+            } else {
+                walk.write(writer, item.hash, item.path);
+            }
+            walk.lineDone();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * Fields are set before {@code done} is completed and read by the writer after it.
+     */
+    private static class Item {
+        private final String line;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        /* file to hash, null if the line is left to the writer */
+        private Path path;
+        private long hash;
+        private Throwable failure;
+
+        Item(String line) {
+            this.line = line;
+        }
+    }
+}
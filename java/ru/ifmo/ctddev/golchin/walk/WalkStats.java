@@ -0,0 +1,170 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a walk. Updates are contention-free {@link LongAdder} increments,
+ * hash latencies are kept in a histogram with power-of-two buckets.
+ */
+class WalkStats implements WalkStatsMXBean {
+    private static final String OBJECT_NAME = "ru.ifmo.ctddev.golchin.walk:type=WalkStats";
+
+    private final long start = System.nanoTime();
+    private final LongAdder filesHashed = new LongAdder();
+    private final LongAdder filesFromIndex = new LongAdder();
+    private final LongAdder bytesHashed = new LongAdder();
+    private final LongAdder traversalNanos = new LongAdder();
+    private final LongAdder hashingNanos = new LongAdder();
+    private final LongAdder writingNanos = new LongAdder();
+    /* latencies in [2^i, 2^(i+1)) nanoseconds */
+    private final LongAdder[] latencies = new LongAdder[Long.SIZE];
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    WalkStats() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LongAdder();
+        }
+    }
+
+    void fileHashed(long bytes, long nanos) {
+        filesHashed.increment();
+        bytesHashed.add(bytes);
+        hashingNanos.add(nanos);
+        latencies[Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(nanos, 1))].increment();
+    }
+
+    void fileFromIndex() {
+        filesFromIndex.increment();
+    }
+
+    void traversed(long nanos) {
+        traversalNanos.add(nanos);
+    }
+
+    void written(long nanos) {
+        writingNanos.add(nanos);
+    }
+
+    void error(Throwable e) {
+        errors.computeIfAbsent(e.getClass().getSimpleName(), type -> new LongAdder()).increment();
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server; only one walk at a time can be registered.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME);
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            System.err.println("Unable to register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+        }
+    }
+
+    String summary() {
+        return String.format("walk: %d files hashed, %d from index, %.1f MB, %.0f files/s, %.1f MB/s, "
+                        + "latency p50 %d us p99 %d us, traversal %d ms, hashing %d ms, writing %d ms, errors %s",
+                getFilesHashed(), getFilesFromIndex(), getBytesHashed() / 1e6, getFilesPerSecond(), getBytesPerSecond() / 1e6,
+                getHashLatencyMedianMicros(), getHashLatency99thPercentileMicros(),
+                getTraversalMillis(), getHashingMillis(), getWritingMillis(), getErrors());
+    }
+
+    @Override
+    public long getFilesHashed() {
+        return filesHashed.sum();
+    }
+
+    @Override
+    public long getFilesFromIndex() {
+        return filesFromIndex.sum();
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return bytesHashed.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return (getFilesHashed() + getFilesFromIndex()) / elapsedSeconds();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return getBytesHashed() / elapsedSeconds();
+    }
+
+    @Override
+    public long getHashLatencyMedianMicros() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long getHashLatency99thPercentileMicros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public long getTraversalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(traversalNanos.sum());
+    }
+
+    @Override
+    public long getHashingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(hashingNanos.sum());
+    }
+
+    @Override
+    public long getWritingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(writingNanos.sum());
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        Map<String, Long> result = new TreeMap<>();
+        errors.forEach((type, count) -> result.put(type, count.sum()));
+        return result;
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(System.nanoTime() - start, 1) / 1e9;
+    }
+
+    private long percentile(double fraction) {
+        long[] counts = new long[latencies.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencies[i].sum();
+            total += counts[i];
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > 0 && seen >= fraction * total) {
+                return TimeUnit.NANOSECONDS.toMicros(i >= Long.SIZE - 2 ? Long.MAX_VALUE : 1L << (i + 1));
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,36 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link WalkStats}. Times are summed over all threads.
+ */
+public interface WalkStatsMXBean {
+    long getFilesHashed();
+
+    long getFilesFromIndex();
+
+    long getBytesHashed();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * @return upper bound of the median time of hashing one file
+     */
+    long getHashLatencyMedianMicros();
+
+    long getHashLatency99thPercentileMicros();
+
+    long getTraversalMillis();
+
+    long getHashingMillis();
+
+    long getWritingMillis();
+
+    /**
+     * @return number of errors by exception type
+     */
+    Map<String, Long> getErrors();
+}
@@ -0,0 +1,270 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps watching the files hashed by {@link WalkImpl} after the walk and writes a line for each change:
+ * {@code + <hash> <path>} for an added file, {@code ~ <hash> <path>} for a changed one
+ * and {@code - <hash> <path>} with the last known hash for a removed one.
+ * <p>
+ * Directories are registered in the {@link WatchService} before they are listed, so nothing changed
+ * during the walk is missed, and only files named by the events are hashed again.
+ * Events are collected until none arrive for the quiet period, so a file being written is hashed once.
+ * If the events of a directory have been lost, that directory alone is listed again.
+ * Files and directories are kept sorted by path, so a change touches only the entries of the affected subtree.
+ */
+class WalkWatcher implements Closeable {
+    private static final Path CURRENT = Paths.get("");
+    /* a batch is processed after this many quiet periods even if events keep coming */
+    private static final int MAX_BATCH = 10;
+
+    private final WalkImpl walk;
+    private final WalkFilter filter;
+    private final long quietMillis;
+    private final WatchService service;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final NavigableMap<Path, WatchKey> keys = new ConcurrentSkipListMap<>();
+    /* roots of the walks by directories with all entries watched, other directories hold only files listed in the input */
+    private final Map<Path, Path> roots = new ConcurrentHashMap<>();
+    private final NavigableSet<Path> listedFiles = new ConcurrentSkipListSet<>();
+    private final NavigableMap<Path, Long> hashes = new ConcurrentSkipListMap<>();
+
+    WalkWatcher(WalkImpl walk, WalkFilter filter, long quietMillis) throws IOException {
+        this.walk = walk;
+        this.filter = filter;
+        this.quietMillis = quietMillis;
+        service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches all entries of a directory that is about to be listed.
+     */
+    void watchDirectory(Path dir, Path root) {
+        if (register(dir)) {
+            roots.put(dir, root);
+        }
+    }
+
+    /**
+     * Watches a file named in the input, whether it exists or not.
+     */
+    void watchFile(Path file) {
+        Path dir = parent(file);
+        listedFiles.add(file);
+        register(dir);
+    }
+
+    void hashed(Path file, long hash) {
+        hashes.put(file, hash);
+    }
+
+    /**
+     * Writes changes until the thread is interrupted or nothing is left to watch.
+     * The output is flushed after each batch of changes.
+     */
+    void run(Writer writer) throws IOException {
+        try {
+            while (!directories.isEmpty()) {
+                writer.flush();
+                Set<Path> changed = new LinkedHashSet<>();
+                Set<Path> lost = new LinkedHashSet<>();
+                WatchKey key = service.take();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH * quietMillis);
+                while (key != null) {
+                    poll(key, changed, lost);
+                    key = System.nanoTime() < deadline ? service.poll(quietMillis, TimeUnit.MILLISECONDS) : null;
+                }
+                walk.forgetHashes();
+                for (Path dir : lost) {
+                    rescan(dir, writer);
+                }
+                for (Path path : changed) {
+                    update(path, writer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+        } finally {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private boolean register(Path dir) {
+        try {
+            WatchKey key = dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            directories.put(key, dir);
+            keys.put(dir, key);
+            return true;
+        } catch (IOException | SecurityException e) {
+            System.err.println("Unable to watch directory " + dir);
+            return false;
+        }
+    }
+
+    private void poll(WatchKey key, Set<Path> changed, Set<Path> lost) {
+        Path dir = directories.get(key);
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                lost.add(dir);
+            } else {
+                Path child = dir.resolve((Path) event.context());
+                if (roots.containsKey(dir) || listedFiles.contains(child)) {
+                    changed.add(child);
+                }
+            }
+        }
+        if (!key.reset()) {
+            /* the directory has been removed */
+            directories.remove(key);
+            keys.remove(dir, key);
+            roots.remove(dir);
+            changed.add(dir);
+        }
+    }
+
+    private void update(Path path, Writer writer) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | SecurityException e) {
+            remove(path, writer);
+            return;
+        }
+        Path root = listedFiles.contains(path) ? null : roots.get(parent(path));
+        if (!attrs.isDirectory()) {
+            if (root == null || filter.acceptsFile(root, path, attrs)) {
+                rehash(path, writer);
+            } else {
+                /* the file no longer passes the size or time limits */
+                remove(path, writer);
+            }
+        } else if (root != null && !roots.containsKey(path) && filter.acceptsDirectory(root, path)) {
+            /* a new directory, its files might have been created before it is registered */
+            watchDirectory(path, root);
+            rescan(path, writer);
+        }
+    }
+
+    private void rehash(Path file, Writer writer) {
+        long hash;
+        try {
+            hash = walk.hash(file);
+        } catch (FileNotFoundException e) {
+            if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+                remove(file, writer);
+                return;
+            }
+            hash = walk.errorValue();
+        }
+        Long old = hashes.put(file, hash);
+        if (old == null) {
+            walk.write(writer, "+ " + walk.hex(hash), file);
+        } else if (old != hash) {
+            walk.write(writer, "~ " + walk.hex(hash), file);
+        }
+    }
+
+    /**
+     * Lists a directory again and updates its entries. Subdirectories are rescanned only if they are not watched yet.
+     */
+    private void rescan(Path dir, Writer writer) {
+        if (!roots.containsKey(dir)) {
+            for (Path file : subtree(listedFiles, dir)) {
+                if (parent(file).equals(dir)) {
+                    update(file, writer);
+                }
+            }
+            return;
+        }
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                present.add(entry);
+                update(entry, writer);
+            }
+        } catch (IOException | SecurityException e) {
+            if (!Files.isDirectory(dir)) {
+                remove(dir, writer);
+            } else {
+                System.err.println("Unable to rescan directory " + dir);
+            }
+            return;
+        }
+        Set<Path> missing = new TreeSet<>();
+        for (Path file : subtree(hashes.navigableKeySet(), dir)) {
+            if (!file.equals(dir)) {
+                Path entry = dir.resolve(dir.relativize(file).getName(0));
+                if (!present.contains(entry)) {
+                    missing.add(entry);
+                }
+            }
+        }
+        for (Path entry : missing) {
+            remove(entry, writer);
+        }
+    }
+
+    /**
+     * Forgets a removed file or all files under a removed directory.
+     */
+    private void remove(Path path, Writer writer) {
+        for (Path file : subtree(hashes.navigableKeySet(), path)) {
+            walk.write(writer, "- " + walk.hex(hashes.remove(file)), file);
+        }
+        for (Path dir : subtree(keys.navigableKeySet(), path)) {
+            WatchKey key = keys.remove(dir);
+            if (key != null) {
+                key.cancel();
+                directories.remove(key);
+            }
+            roots.remove(dir);
+        }
+    }
+
+    /**
+     * Paths under a directory follow it in the sorted order, but may be interleaved with its siblings
+     * which names extend the name of the directory by a character ordered before the separator.
+     *
+     * @return the path itself and the paths under it, in the sorted order
+     */
+    private static List<Path> subtree(NavigableSet<Path> paths, Path path) {
+        String name = path.toString();
+        /* everything may be under a root or the current directory */
+        NavigableSet<Path> candidates = path.getFileName() == null || name.isEmpty() ? paths : paths.subSet(path, true,
+                path.getFileSystem().getPath(name + (char) (path.getFileSystem().getSeparator().charAt(0) + 1)), false);
+        List<Path> subtree = new ArrayList<>();
+        for (Path candidate : candidates) {
+            if (name.isEmpty() ? !candidate.isAbsolute() : candidate.startsWith(path)) {
+                subtree.add(candidate);
+            }
+        }
+        return subtree;
+    }
+
+    private static Path parent(Path path) {
+        Path parent = path.getParent();
+        return parent == null ? CURRENT : parent;
+    }
+}
@@ -0,0 +1,123 @@
+package ru.ifmo.ctddev.golchin.crawler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XXH64 with zero seed: consumes input by 32-byte stripes in four independent lanes,
+ * so it runs several times faster than byte-at-a-time FNV on large files.
+ */
+class XXHash64 extends AbstractHashingAlgorithm {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    @Override
+    public Hasher newHasher() {
+        return new Hasher() {
+            private final ByteBuffer tail = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+            private long v1, v2, v3, v4;
+            private long total;
+
+            {
+                reset();
+            }
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                ByteOrder order = buffer.order();
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                total += buffer.remaining();
+                if (tail.position() > 0) {
+                    while (tail.hasRemaining() && buffer.hasRemaining()) {
+                        tail.put(buffer.get());
+                    }
+                    if (tail.hasRemaining()) {
+                        buffer.order(order);
+                        return;
+                    }
+                    tail.flip();
+                    stripe(tail);
+                    tail.clear();
+                }
+                while (buffer.remaining() >= STRIPE) {
+                    stripe(buffer);
+                }
+                tail.put(buffer);
+                buffer.order(order);
+            }
+
+            private void stripe(ByteBuffer buffer) {
+                v1 = round(v1, buffer.getLong());
+                v2 = round(v2, buffer.getLong());
+                v3 = round(v3, buffer.getLong());
+                v4 = round(v4, buffer.getLong());
+            }
+
+            @Override
+            public long finish() {
+                long hash;
+                if (total >= STRIPE) {
+                    hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                    hash = merge(hash, v1);
+                    hash = merge(hash, v2);
+                    hash = merge(hash, v3);
+                    hash = merge(hash, v4);
+                } else {
+                    hash = PRIME5;
+                }
+                hash += total;
+
+                /* the tail is read by absolute index, so the state stays as it was */
+                int length = tail.position();
+                int i = 0;
+                for (; i + 8 <= length; i += 8) {
+                    hash ^= round(0, tail.getLong(i));
+                    hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+                }
+                if (i + 4 <= length) {
+                    hash ^= (tail.getInt(i) & 0xffffffffL) * PRIME1;
+                    hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+                    i += 4;
+                }
+                for (; i < length; i++) {
+                    hash ^= (tail.get(i) & 0xff) * PRIME5;
+                    hash = Long.rotateLeft(hash, 11) * PRIME1;
+                }
+
+                hash ^= hash >>> 33;
+                hash *= PRIME2;
+                hash ^= hash >>> 29;
+                hash *= PRIME3;
+                hash ^= hash >>> 32;
+                return hash;
+            }
+
+            @Override
+            public void reset() {
+                v1 = PRIME1 + PRIME2;
+                v2 = PRIME2;
+                v3 = 0;
+                v4 = -PRIME1;
+                total = 0;
+                tail.clear();
+            }
+
+            @Override
+            public int bits() {
+                return 64;
+            }
+        };
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long merge(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+}